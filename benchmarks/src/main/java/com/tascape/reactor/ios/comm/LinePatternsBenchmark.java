@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Classification of instruments stderr lines against the start error and warning tables, with LinePatterns, and
+ * with the previous stream scan of each table entry. Tables are the actual ones of Instruments. Reported per line.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinePatternsBenchmark {
+
+    private static final int LINES = 1000;
+
+    private static final String[] START_ERRORS = {"Target failed to run:", "Instruments Usage Error:"};
+
+    private static final String[] WARNINGS = {
+        "WebKit Threading Violation - initial use of WebKit from a secondary thread.",
+        "<Error>: CGImageCreateWithImageProvider: invalid image size:",
+        "Attempting to change event horizon while disengage"};
+
+    private LinePatterns startErrors;
+
+    private LinePatterns warnings;
+
+    private List<String> startErrorList;
+
+    private List<String> warningList;
+
+    private List<String> lines;
+
+    /**
+     * Mostly ordinary instruments log lines, one in ten is a known warning, one in a hundred a start error.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(LINES);
+        startErrorList = new ArrayList<>(Arrays.asList(START_ERRORS));
+        warningList = new ArrayList<>(Arrays.asList(WARNINGS));
+        startErrors = LinePatterns.of(startErrorList.toArray(new String[0]));
+        warnings = LinePatterns.of(warningList.toArray(new String[0]));
+        lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            String prefix = "2016-06-01 10:00:" + (10 + random.nextInt(50)) + " +0000 ";
+            int kind = random.nextInt(100);
+            if (kind == 0) {
+                lines.add(prefix + START_ERRORS[random.nextInt(START_ERRORS.length)] + " com.example.app");
+            } else if (kind < 10) {
+                lines.add(prefix + "SpringBoard[42] " + WARNINGS[random.nextInt(WARNINGS.length)]);
+            } else {
+                lines.add(prefix + "Default: element " + random.nextInt(1000) + " tapped at {" + random.nextInt(375)
+                    + ", " + random.nextInt(667) + "}");
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int patterns() {
+        int errors = 0;
+        for (String line : lines) {
+            if (startErrors.matches(line)) {
+                errors += 100;
+            }
+            if (!warnings.matches(line)) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int contains() {
+        int errors = 0;
+        for (String line : lines) {
+            if (startErrorList.stream().anyMatch(line::contains)) {
+                errors += 100;
+            }
+            if (warningList.stream().noneMatch(line::contains)) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Element lookup on a parsed window, cost of building its index, and serialization of elements into JavaScript path
+ * and JSON. Lookups target the last uniquely named element of the tree, which is close to the worst case of a
+ * depth-first search, and a name that does not exist.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementLookupBenchmark {
+
+    private static final String MISSING = "no such element";
+
+    @Param({"element-tree.txt", "synthetic-10k"})
+    public String fixture;
+
+    private UIAWindow window;
+
+    private UIAElement last;
+
+    private String partialName;
+
+    @Setup
+    public void setup() throws IOException {
+        window = UIA.newInstance().parseElementTree(ElementTreeFixtures.load(fixture));
+        last = findLastNamed(window);
+        String name = last.name();
+        partialName = name.substring(name.length() / 2);
+    }
+
+    @Benchmark
+    public UIAElement findElement() {
+        return window.findElement(last.getClass(), last.name());
+    }
+
+    @Benchmark
+    public UIAElement findElementMissing() {
+        return window.findElement(UIAButton.class, MISSING);
+    }
+
+    @Benchmark
+    public UIAElement findElementPartialName() {
+        return window.findElementPartialName(last.getClass(), partialName);
+    }
+
+    /**
+     * Cost of the first lookups on a newly parsed window, which build the element index and its trigram index.
+     *
+     * @return element found
+     */
+    @Benchmark
+    public UIAElement buildIndex() {
+        return new ElementIndex(window).findPartialName(last.getClass(), partialName);
+    }
+
+    @Benchmark
+    public String toJsPath() {
+        return last.toJsPath();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return window.toJson().toString();
+    }
+
+    /*
+     * The synthetic tree repeats the same elements, so the last element with a unique name is picked. The partial
+     * name is also used as regular expression, so only plain names are picked.
+     */
+    private static UIAElement findLastNamed(UIAWindow window) {
+        List<UIAElement> all = new ArrayList<>();
+        collect(window, all);
+        Map<String, Integer> counts = new HashMap<>();
+        all.forEach(e -> counts.merge(e.name(), 1, Integer::sum));
+        for (int i = all.size() - 1; i >= 0; i--) {
+            UIAElement e = all.get(i);
+            if (counts.get(e.name()) == 1 && e.name().matches("[\\w ]{4,}")) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("no uniquely named element");
+    }
+
+    private static void collect(UIAElement element, List<UIAElement> all) {
+        all.add(element);
+        for (UIAElement e : element.elements()) {
+            collect(e, all);
+        }
+    }
+}
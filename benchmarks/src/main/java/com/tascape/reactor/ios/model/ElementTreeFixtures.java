@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Element tree fixtures of benchmarks. The small and medium trees are the samples bundled with uia-tool; the
+ * synthetic tree repeats the body of the medium sample under table cells of one window, until the node count is
+ * reached.
+ *
+ * @author linsong wang
+ */
+public final class ElementTreeFixtures {
+
+    public static final String SMALL = "element-tree-1.txt";
+
+    public static final String MEDIUM = "element-tree.txt";
+
+    public static final String SYNTHETIC_10K = "synthetic-10k";
+
+    private static final int SYNTHETIC_NODES = 10000;
+
+    private ElementTreeFixtures() {
+    }
+
+    /**
+     * Loads the lines of a fixture.
+     *
+     * @param fixture one of the bundled resource names, or {@link #SYNTHETIC_10K}
+     *
+     * @return lines of logElementTree() output
+     *
+     * @throws IOException if the resource cannot be read
+     */
+    public static List<String> load(String fixture) throws IOException {
+        if (SYNTHETIC_10K.equals(fixture)) {
+            return synthetic(SYNTHETIC_NODES);
+        }
+        return read(fixture);
+    }
+
+    /**
+     * Generates a window with at least the given number of elements.
+     *
+     * @param nodes minimal number of elements in the tree
+     *
+     * @return lines of logElementTree() output
+     *
+     * @throws IOException if the medium sample cannot be read
+     */
+    public static List<String> synthetic(int nodes) throws IOException {
+        List<String> body = new ArrayList<>();
+        int bodyNodes = 0;
+        boolean inWindow = false;
+        for (String line : read(MEDIUM)) {
+            if (line.startsWith("UIAWindow ")) {
+                inWindow = true;
+            } else if (inWindow && line.startsWith("\t")) {
+                body.add(line);
+                if (line.trim().startsWith("UIA")) {
+                    bodyNodes++;
+                }
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("UIAWindow \"(null)\" {{0, 0}, {320, 568}}");
+        lines.add("elements: {");
+        lines.add("\tUIATableView \"(null)\" {{0, 0}, {320, 568}}");
+        lines.add("\telements: {");
+        int count = 2;
+        for (int cell = 0; count < nodes; cell++) {
+            lines.add("\t\tUIATableCell \"cell " + cell + "\" {{0, " + cell * 44 + "}, {320, 44}}");
+            lines.add("\t\telements: {");
+            body.forEach(line -> lines.add("\t\t" + line));
+            lines.add("\t\t}");
+            count += bodyNodes + 1;
+        }
+        lines.add("\t}");
+        lines.add("}");
+        return lines;
+    }
+
+    private static List<String> read(String resource) throws IOException {
+        try (InputStream in = UIA.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("cannot find fixture " + resource);
+            }
+            return IOUtils.readLines(in, StandardCharsets.UTF_8);
+        }
+    }
+}
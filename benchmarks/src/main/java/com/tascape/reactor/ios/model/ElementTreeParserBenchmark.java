@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the streaming element tree parser of UIA with the legacy list based parser, on the element tree samples
+ * bundled with uia-tool and on a synthetic 10k-node tree.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementTreeParserBenchmark {
+
+    @Param({"element-tree-0.txt", "element-tree-1.txt", "element-tree.txt", "synthetic-10k"})
+    public String fixture;
+
+    private List<String> lines;
+
+    private UIAWindow previous;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = ElementTreeFixtures.load(fixture);
+        previous = UIA.newInstance().parseElementTree(lines);
+    }
+
+    @Benchmark
+    public UIAWindow streaming() {
+        return UIA.newInstance().parseElementTree(lines);
+    }
+
+    /**
+     * Incremental refresh of an unchanged screen, the common case when polling for an element.
+     *
+     * @return diff from previous window
+     */
+    @Benchmark
+    public ElementTreeDiff refresh() {
+        return UIA.newInstance().refreshElementTree(previous, lines);
+    }
+
+    /**
+     * The legacy parser consumes its input, so each call works on a copy of the lines.
+     *
+     * @return parsed window
+     */
+    @Benchmark
+    public UIAWindow legacy() {
+        return new LegacyElementTreeParser().parseElementTree(new ArrayList<>(lines));
+    }
+}
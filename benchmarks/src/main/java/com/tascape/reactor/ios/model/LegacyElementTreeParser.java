@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Element tree parser of reactor-x-ios-uiat 1.2.0, kept as baseline to compare with the current UIA parser.
+ *
+ * @author linsong wang
+ */
+public class LegacyElementTreeParser {
+
+    private static final Pattern PATTERN_UIA = Pattern.compile("(UIA.+?) \"(.+?)\" (\\{\\{.+?\\}, \\{.+?\\}\\})",
+        Pattern.DOTALL | Pattern.MULTILINE);
+
+    private static final String UIA_CLASS = "UIA";
+
+    private static final String ELEMENTS = "elements: {";
+
+    public UIAWindow parseElementTree(List<String> elementTree) throws UIAException {
+        return this.parseElementTree(0, elementTree);
+    }
+
+    public UIAWindow parseElementTree(int index, List<String> elementTree) throws UIAException {
+        while (!elementTree.get(0).startsWith(UIAWindow.class.getSimpleName())) {
+            elementTree.remove(0);
+        }
+        UIAWindow window = null;
+        while (elementTree.size() > 0) {
+            String line = elementTree.remove(0);
+            if (line.startsWith("UIAWindow")) {
+                window = (UIAWindow) parseUIAElement(line);
+                break;
+            }
+        }
+        if (window == null) {
+            throw new UIAException("Cannot parse element tree, no UIAWindow found");
+        }
+        window.setIndex(index);
+        if (!elementTree.isEmpty()) {
+            parseElements(window, elementTree.subList(0, elementTree.size()));
+        }
+        return window;
+    }
+
+    public UIAElement parseUIAElement(String uiaLine) throws UIAException {
+        Matcher m = PATTERN_UIA.matcher(uiaLine);
+        if (m.matches()) {
+            UIAElement e = UIA.newElement(m.group(1));
+            e.setName(m.group(2));
+            String[] r = m.group(3).replaceAll("\\{", "").replaceAll("\\}", "").split(",");
+            e.setRect(new Rectangle2D.Float(Float.parseFloat(r[0]), Float.parseFloat(r[1]),
+                Float.parseFloat(r[2]), Float.parseFloat(r[3])));
+            return e;
+        }
+        throw new UIAException("Cannot parse " + uiaLine);
+    }
+
+    private void parseElements(UIAElement root, List<String> elementTree) throws UIAException {
+        List<String> lines = elementTree.stream().map(l -> StringUtils.replace(l, "\t", "", 1))
+            .collect(Collectors.toList());
+        UIAElement element = null;
+        List<String> childLines = new ArrayList<>();
+        String uiaLine = "";
+        while (lines.size() > 0) {
+            String line = lines.remove(0);
+
+            if (line.startsWith(UIA_CLASS)) {
+                uiaLine = line;
+
+            } else if (line.startsWith(ELEMENTS)) {
+                childLines = new ArrayList<>();
+
+            } else if (line.startsWith("\t")) {
+                childLines.add(line);
+
+            } else if (line.startsWith("}")) {
+                parseElements(element, childLines);
+                childLines = new ArrayList<>();
+
+            } else if (!childLines.isEmpty()) {
+                childLines.add(line);
+
+            } else if (StringUtils.isNotEmpty(uiaLine)) {
+                uiaLine += "\n" + line;
+            }
+
+            if (uiaLine.endsWith("}}")) {
+                element = parseUIAElement(uiaLine);
+                uiaLine = "";
+                root.addElement(element);
+            }
+        }
+    }
+}
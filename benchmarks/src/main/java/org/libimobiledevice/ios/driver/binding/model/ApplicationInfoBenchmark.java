@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.model;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of application info from the plist XML returned by installation proxy, with a number of installed
+ * applications.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApplicationInfoBenchmark {
+
+    @Param({"20", "200"})
+    public int applications;
+
+    private String xml;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder()
+            .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            .append("<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" ")
+            .append("\"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n")
+            .append("<plist version=\"1.0\">\n<array>\n");
+        for (int i = 0; i < applications; i++) {
+            sb.append("<dict>\n")
+                .append("<key>ApplicationType</key><string>User</string>\n")
+                .append("<key>CFBundleIdentifier</key><string>com.example.app").append(i).append("</string>\n")
+                .append("<key>CFBundleDisplayName</key><string>App ").append(i).append("</string>\n")
+                .append("<key>CFBundleExecutable</key><string>App").append(i).append("</string>\n")
+                .append("<key>CFBundleShortVersionString</key><string>1.").append(i).append("</string>\n")
+                .append("<key>CFBundleVersion</key><string>").append(1000 + i).append("</string>\n")
+                .append("<key>MinimumOSVersion</key><string>8.0</string>\n")
+                .append("<key>UIRequiredDeviceCapabilities</key><array><string>armv7</string></array>\n")
+                .append("<key>UIStatusBarHidden</key><false/>\n")
+                .append("<key>StaticDiskUsage</key><integer>").append(1048576 * (i + 1)).append("</integer>\n")
+                .append("<key>Entitlements</key><dict>")
+                .append("<key>application-identifier</key><string>ABCDE12345.com.example.app").append(i)
+                .append("</string><key>get-task-allow</key><true/></dict>\n")
+                .append("</dict>\n");
+        }
+        xml = sb.append("</array>\n</plist>\n").toString();
+    }
+
+    @Benchmark
+    public List<ApplicationInfo> extractApplications() {
+        return ApplicationInfo.extractApplications(xml);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Host side cost of a screenshot, from the uncompressed TIFF image returned by screenshot service, of an iPhone 6
+ * sized screen (750x1334 RGBA). The png path decodes and re-encodes the image, the way ScreenshotService.takeScreenshot
+ * does, while rawPixels only locates the pixels in the TIFF buffer. signature and diff are the per-frame cost of
+ * waiting for a stable screen.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenshotBenchmark {
+
+    private static final int WIDTH = 750;
+
+    private static final int HEIGHT = 1334;
+
+    private byte[] tiff;
+
+    private ByteBuffer direct;
+
+    private ScreenSignature signature;
+
+    private ScreenSignature other;
+
+    @Setup
+    public void setup() {
+        tiff = tiff(WIDTH, HEIGHT, new Random(42));
+        direct = ByteBuffer.allocateDirect(tiff.length);
+        direct.put(tiff).flip();
+        signature = ScreenSignature.of(RawImage.fromTiff(direct));
+        other = ScreenSignature.of(RawImage.fromTiff(ByteBuffer.wrap(tiff(WIDTH, HEIGHT, new Random(7)))));
+    }
+
+    @Benchmark
+    public byte[] png() throws ImageReadException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new TiffImageParser().getBufferedImage(tiff, new HashMap<>()), "png", out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Object decode() throws ImageReadException, IOException {
+        return new TiffImageParser().getBufferedImage(tiff, new HashMap<>());
+    }
+
+    @Benchmark
+    public RawImage rawPixels() {
+        return RawImage.fromTiff(direct);
+    }
+
+    @Benchmark
+    public ScreenSignature signature() {
+        return ScreenSignature.of(RawImage.fromTiff(direct));
+    }
+
+    @Benchmark
+    public double diff() {
+        return signature.diff(other);
+    }
+
+    /**
+     * Builds a big-endian uncompressed RGBA TIFF image in one strip, with horizontal bands of noise, so that PNG
+     * compression has some work to do.
+     */
+    static byte[] tiff(int width, int height, Random random) {
+        int entries = 10;
+        int bitsOffset = 8 + 2 + entries * 12 + 4;
+        int pixelsOffset = bitsOffset + 8;
+        int size = width * height * 4;
+        ByteBuffer b = ByteBuffer.allocate(pixelsOffset + size);
+        b.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        b.putShort((short) entries);
+        entry(b, 256, 4, 1, width);
+        entry(b, 257, 4, 1, height);
+        b.putShort((short) 258).putShort((short) 3).putInt(4).putInt(bitsOffset);
+        entry(b, 259, 3, 1, 1);
+        entry(b, 262, 3, 1, 2);
+        entry(b, 273, 4, 1, pixelsOffset);
+        entry(b, 277, 3, 1, 4);
+        entry(b, 278, 4, 1, height);
+        entry(b, 279, 4, 1, size);
+        entry(b, 338, 3, 1, 2);
+        b.putInt(0);
+        b.putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 8);
+        byte[] band = new byte[width * 4];
+        for (int y = 0; y < height; y++) {
+            if (y % 16 == 0) {
+                random.nextBytes(band);
+                for (int i = 3; i < band.length; i += 4) {
+                    band[i] = (byte) 0xFF;
+                }
+            }
+            b.put(band);
+        }
+        return b.array();
+    }
+
+    private static void entry(ByteBuffer b, int tag, int type, int count, int value) {
+        b.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3) {
+            b.putShort((short) value).putShort((short) 0);
+        } else {
+            b.putInt(value);
+        }
+    }
+}
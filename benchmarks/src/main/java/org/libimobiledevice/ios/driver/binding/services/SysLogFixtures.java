@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates device syslog lines in the format of syslog_relay, with a fixed seed so every run sees the same input.
+ *
+ * @author linsong wang
+ */
+public final class SysLogFixtures {
+
+    private static final String[] PROCESSES = {"SpringBoard", "backboardd", "kernel", "locationd", "MobileSafari",
+        "UIAutomation", "ScriptAgent", "assertiond", "wifid", "mediaserverd"};
+
+    private static final String[] LEVELS = {"Notice", "Warning", "Error", "Debug"};
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct",
+        "Nov", "Dec"};
+
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor"
+        + " incididunt ut labore et dolore magna aliqua";
+
+    private SysLogFixtures() {
+    }
+
+    /**
+     * Generates syslog lines.
+     *
+     * @param count number of lines
+     *
+     * @return lines without line feed
+     */
+    public static List<String> lines(int count) {
+        Random random = new Random(count);
+        String[] words = WORDS.split(" ");
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder()
+                .append(MONTHS[random.nextInt(MONTHS.length)])
+                .append(String.format(" %2d %02d:%02d:%02d ", random.nextInt(28) + 1, random.nextInt(24),
+                    random.nextInt(60), random.nextInt(60)))
+                .append("iPhone ")
+                .append(PROCESSES[random.nextInt(PROCESSES.length)])
+                .append('[').append(random.nextInt(2000)).append("] <")
+                .append(LEVELS[random.nextInt(LEVELS.length)]).append(">:");
+            int length = 3 + random.nextInt(30);
+            for (int w = 0; w < length; w++) {
+                line.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Generates the raw bytes of syslog lines, as received from syslog_relay.
+     *
+     * @param count number of lines
+     *
+     * @return bytes of lines, each terminated by line feed
+     */
+    public static byte[] bytes(int count) {
+        StringBuilder sb = new StringBuilder();
+        lines(count).forEach(line -> sb.append(line).append('\n'));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of device syslog lines into SysLogLine, reported per line. Devices log in bursts, so lines share their
+ * timestamp in runs of a given length; a run of 1 gives every line its own timestamp.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SysLogLineBenchmark {
+
+    private static final int LINES = 1000;
+
+    @Param({"1", "20"})
+    public int stampRun;
+
+    private List<String> lines;
+
+    @Setup
+    public void setup() {
+        lines = SysLogFixtures.lines(LINES);
+        for (int i = 0; i < LINES; i++) {
+            String stamp = lines.get(i / stampRun * stampRun).substring(0, 15);
+            lines.set(i, stamp + lines.get(i).substring(15));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parse(Blackhole bh) throws SysLogLine.LogParsingException {
+        for (String line : lines) {
+            bh.consume(new SysLogLine(line));
+        }
+    }
+
+    /**
+     * Parsing, and reading all fields of each line, as listeners filtering on process and level do.
+     *
+     * @param bh black hole
+     *
+     * @throws SysLogLine.LogParsingException never
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseAndRead(Blackhole bh) throws SysLogLine.LogParsingException {
+        for (String line : lines) {
+            SysLogLine log = new SysLogLine(line);
+            bh.consume(log.getDate());
+            bh.consume(log.getProcess());
+            bh.consume(log.getLevel());
+            bh.consume(log.getMessage());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingestion of device syslog through SyslogMessageListeners, byte by byte the way the native capture callback feeds
+ * it, and in 16K blocks the way SysLogRelayReader feeds it, with a number of registered listeners. Listeners run on
+ * their own delivery threads, so this is the cost on capture thread, including the hand-off to listener queues.
+ * Reported per line.
+ *
+ * @author linsong wang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyslogIngestionBenchmark {
+
+    private static final int LINES = 1000;
+
+    @Param({"1", "4"})
+    public int listeners;
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private byte[] bytes;
+
+    private ByteBuffer blocks;
+
+    private SyslogMessageListeners syslog;
+
+    private long pids;
+
+    @Setup
+    public void setup() {
+        bytes = SysLogFixtures.bytes(LINES);
+        blocks = ByteBuffer.allocateDirect(bytes.length);
+        blocks.put(bytes).flip();
+        syslog = new SyslogMessageListeners();
+        for (int i = 0; i < listeners; i++) {
+            syslog.add(line -> pids += line.getPid());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long apply() {
+        for (byte b : bytes) {
+            syslog.apply(b, null);
+        }
+        return pids;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long applyBlocks() {
+        for (int start = 0; start < bytes.length; start += BLOCK_SIZE) {
+            blocks.limit(Math.min(start + BLOCK_SIZE, bytes.length)).position(start);
+            syslog.apply(blocks);
+        }
+        return pids;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pixels of a screenshot, row by row without padding, for callers that compare images without encoding them.
+ */
+public class RawImage {
+    private static final int TAG_WIDTH = 256;
+
+    private static final int TAG_HEIGHT = 257;
+
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+
+    private static final int TAG_COMPRESSION = 259;
+
+    private static final int TAG_STRIP_OFFSETS = 273;
+
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+
+    private static final int TYPE_SHORT = 3;
+
+    private final int width;
+
+    private final int height;
+
+    private final int bytesPerPixel;
+
+    private final ByteBuffer pixels;
+
+    /**
+     * Gets the pixels of an uncompressed TIFF image with 8-bit samples stored in contiguous strips, which is what the
+     * screenshot service returns. The pixels are a view of the TIFF buffer, no data is copied.
+     *
+     * @param tiff TIFF image, from position 0 to limit
+     *
+     * @return raw image, or null if the TIFF image is compressed, planar, or not in contiguous strips
+     */
+    public static RawImage fromTiff(ByteBuffer tiff) {
+        ByteBuffer b = tiff.duplicate();
+        if (b.limit() < 8) {
+            return null;
+        }
+        b.order(b.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (b.getShort(2) != 42) {
+            return null;
+        }
+        int ifd = b.getInt(4);
+        int width = 0;
+        int height = 0;
+        int samples = 1;
+        int bitsEntry = -1;
+        int offsetsEntry = -1;
+        int countsEntry = -1;
+        int entries = b.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = b.getShort(entry) & 0xFFFF;
+            switch (tag) {
+                case TAG_WIDTH:
+                    width = value(b, entry, 0);
+                    break;
+                case TAG_HEIGHT:
+                    height = value(b, entry, 0);
+                    break;
+                case TAG_BITS_PER_SAMPLE:
+                    bitsEntry = entry;
+                    break;
+                case TAG_COMPRESSION:
+                    if (value(b, entry, 0) != 1) {
+                        return null;
+                    }
+                    break;
+                case TAG_STRIP_OFFSETS:
+                    offsetsEntry = entry;
+                    break;
+                case TAG_SAMPLES_PER_PIXEL:
+                    samples = value(b, entry, 0);
+                    break;
+                case TAG_STRIP_BYTE_COUNTS:
+                    countsEntry = entry;
+                    break;
+                case TAG_PLANAR_CONFIGURATION:
+                    if (value(b, entry, 0) != 1) {
+                        return null;
+                    }
+                    break;
+                default:
+            }
+        }
+        if (width <= 0 || height <= 0 || offsetsEntry < 0 || countsEntry < 0) {
+            return null;
+        }
+        for (int i = 0; bitsEntry >= 0 && i < samples; i++) {
+            if (value(b, bitsEntry, Math.min(i, b.getInt(bitsEntry + 4) - 1)) != 8) {
+                return null;
+            }
+        }
+        int strips = b.getInt(offsetsEntry + 4);
+        int start = value(b, offsetsEntry, 0);
+        int end = start;
+        for (int i = 0; i < strips; i++) {
+            if (value(b, offsetsEntry, i) != end) {
+                return null;
+            }
+            end += value(b, countsEntry, i);
+        }
+        long size = (long) width * height * samples;
+        if (end - start < size || start + size > b.limit()) {
+            return null;
+        }
+        b.position(start).limit((int) (start + size));
+        return new RawImage(width, height, samples, b.slice());
+    }
+
+    public RawImage(int width, int height, int bytesPerPixel, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = bytesPerPixel;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of bytes per pixel, such as 3 for RGB, or 4 for RGBA.
+     *
+     * @return bytes per pixel
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Gets the pixels as a read-only buffer, from position 0, row by row.
+     *
+     * @return pixel buffer
+     */
+    public ByteBuffer getPixels() {
+        return pixels.asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "x" + bytesPerPixel;
+    }
+
+    private static int value(ByteBuffer b, int entry, int index) {
+        int type = b.getShort(entry + 2) & 0xFFFF;
+        int size = type == TYPE_SHORT ? 2 : 4;
+        int count = b.getInt(entry + 4);
+        int data = count * size <= 4 ? entry + 8 : b.getInt(entry + 8);
+        int at = data + index * size;
+        return type == TYPE_SHORT ? b.getShort(at) & 0xFFFF : b.getInt(at);
+    }
+}
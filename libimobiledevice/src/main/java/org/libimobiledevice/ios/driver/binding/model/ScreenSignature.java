@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Perceptual signature of a screenshot, to tell if screen changes between frames. The image is downscaled into a
+ * grayscale raster, which is split into blocks of 8x8 cells. Each block keeps its mean luminance, and a 64-bit hash
+ * with one bit per cell brighter than the block mean. Small noise, such as a blinking cursor, changes a few blocks,
+ * while a transition or an animation changes many.
+ */
+public class ScreenSignature {
+    /**
+     * Number of source pixels per side of one grayscale cell.
+     */
+    public static final int SCALE = 4;
+
+    private static final int BLOCK = 8;
+
+    /**
+     * Cells within this luminance of block mean do not set hash bits, so flat blocks hash the same.
+     */
+    private static final int DEAD_ZONE = 8;
+
+    private static final int MEAN_TOLERANCE = 6;
+
+    private static final int HASH_TOLERANCE = 6;
+
+    private final int columns;
+
+    private final int rows;
+
+    private final int[] means;
+
+    private final long[] hashes;
+
+    /**
+     * Computes the signature of an image.
+     *
+     * @param image raw image
+     *
+     * @return signature
+     */
+    public static ScreenSignature of(RawImage image) {
+        int width = image.getWidth() / SCALE;
+        int height = image.getHeight() / SCALE;
+        int[] gray = toGray(image, width, height);
+        int columns = width / BLOCK;
+        int rows = height / BLOCK;
+        int[] means = new int[columns * rows];
+        long[] hashes = new long[columns * rows];
+        int[] cells = new int[BLOCK * BLOCK];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int sum = 0;
+                for (int y = 0; y < BLOCK; y++) {
+                    System.arraycopy(gray, (r * BLOCK + y) * width + c * BLOCK, cells, y * BLOCK, BLOCK);
+                }
+                for (int i = 0; i < cells.length; i++) {
+                    sum += cells[i];
+                }
+                int mean = sum / cells.length;
+                int level = mean + DEAD_ZONE;
+                long hash = 0;
+                for (int i = 0; i < cells.length; i++) {
+                    hash |= (long) ((level - cells[i]) >>> 31) << i;
+                }
+                means[r * columns + c] = mean;
+                hashes[r * columns + c] = hash;
+            }
+        }
+        return new ScreenSignature(columns, rows, means, hashes);
+    }
+
+    /**
+     * Downscales an image into a grayscale raster, each cell the mean luminance (0 - 255) of SCALE x SCALE pixels.
+     * Luminance is approximated as (r + 2g + b) / 4. Each row is copied in bulk out of the pixel buffer, and summed
+     * into an int[] of column sums, so the inner loops run over plain arrays.
+     */
+    static int[] toGray(RawImage image, int width, int height) {
+        ByteBuffer pixels = image.getPixels();
+        int bpp = image.getBytesPerPixel();
+        int g = bpp < 3 ? 0 : 1;
+        int b = bpp < 3 ? 0 : 2;
+        int stride = image.getWidth() * bpp;
+        int[] gray = new int[width * height];
+        byte[] row = new byte[width * SCALE * bpp];
+        int[] lum = new int[width * SCALE];
+        int[] sums = new int[width];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(sums, 0);
+            for (int dy = 0; dy < SCALE; dy++) {
+                pixels.position((y * SCALE + dy) * stride);
+                pixels.get(row);
+                for (int x = 0, p = 0; x < lum.length; x++, p += bpp) {
+                    lum[x] = (row[p] & 0xFF) + ((row[p + g] & 0xFF) << 1) + (row[p + b] & 0xFF);
+                }
+                for (int x = 0, i = 0; x < width; x++) {
+                    int sum = 0;
+                    for (int dx = 0; dx < SCALE; dx++, i++) {
+                        sum += lum[i];
+                    }
+                    sums[x] += sum;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                gray[y * width + x] = sums[x] / (SCALE * SCALE * 4);
+            }
+        }
+        return gray;
+    }
+
+    private ScreenSignature(int columns, int rows, int[] means, long[] hashes) {
+        this.columns = columns;
+        this.rows = rows;
+        this.means = means;
+        this.hashes = hashes;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the fraction of blocks that changed, between 0 (same) and 1 (all changed). A block changes if its mean
+     * luminance, or its hash, differs beyond tolerance.
+     *
+     * @param other signature of another frame
+     *
+     * @return difference, or 1 if the frames are of different size
+     */
+    public double diff(ScreenSignature other) {
+        if (other.columns != columns || other.rows != rows) {
+            return 1;
+        }
+        if (means.length == 0) {
+            return 0;
+        }
+        int changed = 0;
+        for (int i = 0; i < means.length; i++) {
+            int delta = means[i] - other.means[i];
+            if (delta > MEAN_TOLERANCE || delta < -MEAN_TOLERANCE
+                || Long.bitCount(hashes[i] ^ other.hashes[i]) > HASH_TOLERANCE) {
+                changed++;
+            }
+        }
+        return (double) changed / means.length;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows + " blocks";
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.raw;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Direct mapping of the few libimobiledevice functions needed to read syslog_relay in blocks, which
+ * libimobiledevice-sdk only exposes as a per-byte callback. The library is bundled with, and loaded by,
+ * libimobiledevice-sdk. If it cannot be mapped, {@link #isAvailable()} is false.
+ */
+public class ImobiledeviceLibrary implements Library {
+    private static final Logger LOG = LoggerFactory.getLogger(ImobiledeviceLibrary.class);
+
+    public static final String JNA_LIBRARY_NAME = "imobiledevice.4";
+
+    private static final boolean AVAILABLE;
+
+    static {
+        boolean available = false;
+        try {
+            Native.register(ImobiledeviceLibrary.class, NativeLibrary.getInstance(JNA_LIBRARY_NAME));
+            available = true;
+        } catch (UnsatisfiedLinkError | RuntimeException ex) {
+            LOG.warn("Cannot map {} - {}", JNA_LIBRARY_NAME, ex.getMessage());
+        }
+        AVAILABLE = available;
+    }
+
+    /**
+     * enum values
+     */
+    public static interface syslog_relay_error_t {
+        public static final int SYSLOG_RELAY_E_SUCCESS = 0;
+
+        public static final int SYSLOG_RELAY_E_INVALID_ARG = -1;
+
+        public static final int SYSLOG_RELAY_E_MUX_ERROR = -2;
+
+        public static final int SYSLOG_RELAY_E_SSL_ERROR = -3;
+
+        public static final int SYSLOG_RELAY_E_NOT_ENOUGH_DATA = -4;
+
+        public static final int SYSLOG_RELAY_E_TIMEOUT = -5;
+
+        public static final int SYSLOG_RELAY_E_UNKNOWN_ERROR = -256;
+    };
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Original signature : <code>idevice_error_t idevice_new(idevice_t*, const char*)</code>
+     *
+     * @param device device
+     * @param udid   udid
+     *
+     * @return int
+     */
+    public static native int idevice_new(PointerByReference device, String udid);
+
+    /**
+     * Original signature : <code>idevice_error_t idevice_free(idevice_t)</code>
+     *
+     * @param device device
+     *
+     * @return int
+     */
+    public static native int idevice_free(Pointer device);
+
+    /**
+     * Original signature :
+     * <code>syslog_relay_error_t syslog_relay_client_start_service(idevice_t, syslog_relay_client_t*, const char*)</code>
+     *
+     * @param device device
+     * @param client client
+     * @param label  label
+     *
+     * @return int
+     */
+    public static native int syslog_relay_client_start_service(Pointer device, PointerByReference client, String label);
+
+    /**
+     * Original signature :
+     * <code>syslog_relay_error_t syslog_relay_receive_with_timeout(syslog_relay_client_t, char*, uint32_t, uint32_t*, unsigned int)</code>
+     *
+     * @param client   client
+     * @param data     direct buffer to receive into
+     * @param size     max number of bytes
+     * @param received number of bytes received
+     * @param timeout  timeout in milliseconds
+     *
+     * @return int
+     */
+    public static native int syslog_relay_receive_with_timeout(Pointer client, ByteBuffer data, int size,
+        IntByReference received, int timeout);
+
+    /**
+     * Original signature : <code>syslog_relay_error_t syslog_relay_client_free(syslog_relay_client_t)</code>
+     *
+     * @param client client
+     *
+     * @return int
+     */
+    public static native int syslog_relay_client_free(Pointer client);
+}
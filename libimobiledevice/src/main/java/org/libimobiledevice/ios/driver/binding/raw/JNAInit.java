@@ -74,6 +74,7 @@ public class JNAInit {
             unpack(lib, jna);
         }
         NativeLibrary.addSearchPath("imobiledevice-sdk", jna.getAbsolutePath());
+        NativeLibrary.addSearchPath(ImobiledeviceLibrary.JNA_LIBRARY_NAME, jna.getAbsolutePath());
 
         File dst = new File(jna, "idevicedebug");
         copy("darwin/idevicedebug", dst);
@@ -13,20 +13,28 @@
  */
 package org.libimobiledevice.ios.driver.binding.services;
 
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import com.sun.jna.ptr.PointerByReference;
 
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
+import org.libimobiledevice.ios.driver.binding.model.RawImage;
 import org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.imageio.ImageIO;
-import org.apache.commons.imaging.formats.png.PngImageParser;
 import static org.libimobiledevice.ios.driver.binding.exceptions.SDKErrorCode.throwIfNeeded;
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.screenshot_service_free;
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.screenshot_service_new;
@@ -34,8 +42,23 @@ import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrar
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.sdk_idevice_screenshot_service_t;
 
 public class ScreenshotService {
+    /**
+     * Encodes PNG off the calling thread, shared by all devices.
+     */
+    private static final ExecutorService ENCODER = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "screenshot-encoder");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final ImobiledeviceSdkLibrary.sdk_idevice_screenshot_service_t service;
 
+    /**
+     * The screenshotr connection serves one request at a time, screenshots of streams, waits, and tests on the same
+     * service are taken in turn.
+     */
+    private final Object lock = new Object();
+
     public ScreenshotService(IOSDevice d) throws SDKException {
         InformationService info = new InformationService(d);
         boolean dev = info.isDevModeEnabled();
@@ -50,34 +73,51 @@ public class ScreenshotService {
     }
 
     public void free() throws SDKException {
-        throwIfNeeded(screenshot_service_free(service));
+        synchronized (lock) {
+            throwIfNeeded(screenshot_service_free(service));
+        }
     }
 
-    private byte[] takeScreenshotAsTiff() throws SDKException {
+    /**
+     * Takes a screenshot, and hands the TIFF image to the handler as a direct buffer over native memory. The native
+     * memory is freed when the handler returns, so the buffer must not escape.
+     */
+    private <T> T takeScreenshot(TiffHandler<T> handler) throws SDKException, IOException {
         PointerByReference ptr = new PointerByReference();
         LongBuffer sizeptr = LongBuffer.allocate(1);
 
-        int res = screenshot_service_take_screenshot(service, ptr, sizeptr);
+        synchronized (lock) {
+            throwIfNeeded(screenshot_service_take_screenshot(service, ptr, sizeptr));
+        }
 
-        if (ptr == null) {
-            throw new SDKException("Bug ? pointer should have been assigned by the screenshot service");
-        } else if (ptr.getValue() == null) {
+        Pointer tiff = ptr.getValue();
+        if (tiff == null) {
             throw new SDKException("Didn't get a value back. Something wrong in screenshot_service");
-        } else {
-            long size = sizeptr.get(0);
-            byte[] b = ptr.getValue().getByteArray(0, (int) size);
-            return b;
+        }
+        try {
+            return handler.handle(tiff.getByteBuffer(0, sizeptr.get(0)));
+        } finally {
+            Native.free(Pointer.nativeValue(tiff));
         }
     }
 
+    private byte[] takeScreenshotAsTiff() throws SDKException, IOException {
+        return takeScreenshot(tiff -> {
+            byte[] b = new byte[tiff.remaining()];
+            tiff.get(b);
+            return b;
+        });
+    }
+
+    private static BufferedImage decode(byte[] tiff) throws ImageReadException, IOException {
+        return new TiffImageParser().getBufferedImage(tiff, new HashMap<>());
+    }
+
     private byte[] getPNGAsString() throws SDKException, ImageReadException, IOException {
         byte[] raw = takeScreenshotAsTiff();
 
-        TiffImageParser parser = new TiffImageParser();
-        BufferedImage image = parser.getBufferedImage(raw, new HashMap<>());
-        File f = new File("screen.png");
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", out);
+        ImageIO.write(decode(raw), "png", out);
         out.flush();
         return out.toByteArray();
     }
@@ -108,8 +148,121 @@ public class ScreenshotService {
      */
     public void takeScreenshot(File png) throws SDKException, ImageReadException, IOException {
         byte[] raw = takeScreenshotAsTiff();
-        PngImageParser parser = new PngImageParser();
-        BufferedImage image = parser.getBufferedImage(raw, new HashMap<>());
-        ImageIO.write(image, "png", png);
+        ImageIO.write(decode(raw), "png", png);
+    }
+
+    /**
+     * Takes a screenshot right away, and encodes it in PNG format on a background thread.
+     *
+     * @param png file path
+     *
+     * @return future of the PNG file
+     *
+     * @throws SDKException any issue
+     * @throws IOException  any issue
+     */
+    public CompletableFuture<File> takeScreenshotAsync(File png) throws SDKException, IOException {
+        byte[] raw = takeScreenshotAsTiff();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ImageIO.write(decode(raw), "png", png);
+                return png;
+            } catch (ImageReadException | IOException e) {
+                throw new IllegalStateException("Cannot encode screenshot " + png, e);
+            }
+        }, ENCODER);
+    }
+
+    /**
+     * Gets a screenshot in TIFF format, as is from device. The image is written straight from native memory.
+     *
+     * @param tiff file path
+     *
+     * @throws SDKException any issue
+     * @throws IOException  any issue
+     */
+    public void takeScreenshotAsTiff(File tiff) throws SDKException, IOException {
+        takeScreenshot(buffer -> {
+            try (FileChannel channel = FileChannel.open(tiff.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return tiff;
+        });
+    }
+
+    /**
+     * Gets a screenshot in TIFF format, copied once out of native memory into a direct buffer.
+     *
+     * @param reuse buffer to reuse if large enough, or null
+     *
+     * @return buffer of TIFF image, from position 0 to limit
+     *
+     * @throws SDKException any issue
+     */
+    public ByteBuffer takeScreenshotAsTiff(ByteBuffer reuse) throws SDKException {
+        try {
+            return takeScreenshot(buffer -> {
+                ByteBuffer copy = reuse != null && reuse.isDirect() && reuse.capacity() >= buffer.remaining()
+                    ? reuse : ByteBuffer.allocateDirect(buffer.remaining());
+                copy.clear();
+                copy.put(buffer);
+                copy.flip();
+                return copy;
+            });
+        } catch (IOException e) {
+            throw new SDKException("Cannot take a screenshot : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the raw pixels of a screenshot, for callers that compare images without encoding them. The TIFF image is
+     * copied once out of native memory into a direct buffer, and the pixels are a view of it.
+     *
+     * @return raw image
+     *
+     * @throws SDKException any issue
+     */
+    public RawImage takeScreenshotAsPixels() throws SDKException {
+        return toPixels(takeScreenshotAsTiff((ByteBuffer) null));
+    }
+
+    /**
+     * Gets the pixels of a TIFF image, as a view of the TIFF buffer if it is uncompressed, or decoded into 4-byte
+     * RGBA pixels otherwise.
+     *
+     * @param tiff TIFF image
+     *
+     * @return raw image
+     *
+     * @throws SDKException if the image cannot be decoded
+     */
+    public static RawImage toPixels(ByteBuffer tiff) throws SDKException {
+        RawImage image = RawImage.fromTiff(tiff);
+        if (image != null) {
+            return image;
+        }
+        try {
+            byte[] raw = new byte[tiff.remaining()];
+            tiff.duplicate().get(raw);
+            BufferedImage decoded = decode(raw);
+            int width = decoded.getWidth();
+            int height = decoded.getHeight();
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+            for (int argb : decoded.getRGB(0, 0, width, height, null, 0, width)) {
+                pixels.putInt(argb << 8 | argb >>> 24);
+            }
+            pixels.flip();
+            return new RawImage(width, height, 4, pixels);
+        } catch (ImageReadException | IOException e) {
+            throw new SDKException("Cannot decode screenshot : " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface TiffHandler<T> {
+        T handle(ByteBuffer tiff) throws IOException;
     }
 }
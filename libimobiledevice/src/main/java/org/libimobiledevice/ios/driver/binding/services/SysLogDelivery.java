@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers syslog lines to one listener on its own thread, through a bounded queue, so a slow listener does not stall
+ * capture, nor other listeners. When the queue is full, the capture thread follows the overflow policy.
+ */
+class SysLogDelivery implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SysLogDelivery.class);
+
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private static final int BATCH = 256;
+
+    /**
+     * One of every SAMPLE_RATE lines is kept when queue is full, with policy SAMPLE.
+     */
+    static final int SAMPLE_RATE = 10;
+
+    private final SysLogListener listener;
+
+    private final SysLogService.OverflowPolicy policy;
+
+    private final BlockingQueue<SysLogLine> queue;
+
+    private final Thread thread;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong delayed = new AtomicLong();
+
+    private long overflows = 0;
+
+    private volatile boolean running = true;
+
+    SysLogDelivery(SysLogListener listener, int capacity, SysLogService.OverflowPolicy policy) {
+        this.listener = listener;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this, "syslog-listener-" + COUNT.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    SysLogListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Queues a line, called on capture thread only.
+     *
+     * @param line parsed line
+     */
+    void offer(SysLogLine line) {
+        if (queue.offer(line)) {
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                delayed.incrementAndGet();
+                try {
+                    while (running && !queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                        LOG.trace("wait for {}", listener);
+                    }
+                } catch (InterruptedException ex) {
+                    dropped.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case SAMPLE:
+                if (++overflows % SAMPLE_RATE != 0) {
+                    dropped.incrementAndGet();
+                    break;
+                }
+            // fall through, keep this line in place of the oldest
+            case DROP_OLDEST:
+            default:
+                while (!queue.offer(line)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getDelayedCount() {
+        return delayed.get();
+    }
+
+    /**
+     * Stops delivery, after queued lines are delivered.
+     */
+    void close() {
+        running = false;
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            LOG.warn("Interrupted closing syslog delivery of {}", listener);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<SysLogLine> lines = new ArrayList<>(BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                SysLogLine line = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    continue;
+                }
+                lines.add(line);
+            } catch (InterruptedException ex) {
+                LOG.warn("Interrupted syslog delivery of {}", listener);
+                break;
+            }
+            queue.drainTo(lines, BATCH - 1);
+            for (SysLogLine line : lines) {
+                try {
+                    listener.onLog(line);
+                } catch (RuntimeException e) {
+                    LOG.warn("Syslog listener {} failed", listener, e);
+                }
+            }
+            lines.clear();
+        }
+        LOG.debug("Stop syslog delivery of {}, dropped {}, delayed {}", listener, dropped, delayed);
+    }
+}
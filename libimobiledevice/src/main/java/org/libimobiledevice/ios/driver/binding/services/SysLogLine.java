@@ -13,55 +13,168 @@
  */
 package org.libimobiledevice.ios.driver.binding.services;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Date;
 
+/**
+ * One parsed line of device syslog, {@code MMM d HH:mm:ss <device> <process>[<pid>] <<level>>: <message>}. Instances
+ * are immutable, and shared by all listeners.
+ * <p>
+ * The line is split by index only, and process, level and message are taken out of the original line on first use.
+ * Consecutive lines mostly share one timestamp, the last decoded timestamp is cached, and reused.
+ */
 public class SysLogLine {
-    private Date date;
+    private static final int STAMP_LENGTH = 15;
 
-    private String process;
+    private static volatile Stamp lastStamp = new Stamp("", 0);
+
+    private final long time;
+
+    private final int pid;
+
+    private final String original;
+
+    private final int processStart;
+
+    private final int processEnd;
+
+    private final int levelStart;
+
+    private final int levelEnd;
 
-    private int pid;
+    private final int messageStart;
+
+    private final int messageEnd;
+
+    private String process;
 
     private String level;
 
     private String message;
 
-    private String original;
-
     SysLogLine(String line) throws LogParsingException {
         original = line;
-        // Date
         try {
-            String d = Calendar.getInstance().get(Calendar.YEAR) + " " + line.substring(0, 15);
-            SimpleDateFormat parser = new SimpleDateFormat("yyyy MMM d HH:mm:ss");
-            date = parser.parse(d);
-
-            // process and its pid
-            String rest = line.substring(15);
-            int openingBracketPid = rest.indexOf("[");
-            int closingBracketPid = rest.indexOf("]");
-            // removing the 2 spaces
-            process = rest.substring(2, openingBracketPid);
-            pid = Integer.parseInt(rest.substring(openingBracketPid + 1, closingBracketPid));
-
-            rest = rest.substring(closingBracketPid + 2);
-
-            // level
-            int index = rest.indexOf('>');
-            level = rest.substring(1, index);
-
-            // removing the leading ':'
-            rest = rest.substring(index + 2);
-
-            // and trim leading space
-            message = rest.trim();
-        } catch (Exception e) {
+            time = parseTime(line);
+
+            // process and its pid, after device name
+            int openingBracketPid = line.indexOf('[', STAMP_LENGTH);
+            int closingBracketPid = line.indexOf(']', openingBracketPid);
+            processStart = line.lastIndexOf(' ', openingBracketPid) + 1;
+            processEnd = openingBracketPid;
+            pid = parsePid(line, openingBracketPid + 1, closingBracketPid);
+
+            // level, in <>, after a space
+            if (line.charAt(closingBracketPid + 2) != '<') {
+                throw new IllegalArgumentException("no level");
+            }
+            levelStart = closingBracketPid + 3;
+            levelEnd = line.indexOf('>', levelStart);
+            if (processStart <= STAMP_LENGTH || levelEnd < 0) {
+                throw new IllegalArgumentException("no process or level");
+            }
+
+            // message, after ':', trimmed
+            int start = Math.min(levelEnd + 2, line.length());
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            messageStart = start;
+            messageEnd = end;
+        } catch (RuntimeException e) {
             throw new LogParsingException("Cannot parse line (is it a full line ?)" + original);
         }
     }
 
+    /**
+     * Decodes the leading {@code MMM d HH:mm:ss} of line in current year and default time zone, or takes it from
+     * cache if the previous line had the same timestamp.
+     */
+    private static long parseTime(String line) {
+        Stamp stamp = lastStamp;
+        if (line.regionMatches(0, stamp.text, 0, STAMP_LENGTH)) {
+            return stamp.time;
+        }
+        if (line.length() < STAMP_LENGTH || line.charAt(3) != ' ' || line.charAt(6) != ' '
+            || line.charAt(9) != ':' || line.charAt(12) != ':') {
+            throw new IllegalArgumentException("no timestamp");
+        }
+        int day = line.charAt(4) == ' ' ? digit(line, 5) : digit(line, 4) * 10 + digit(line, 5);
+        LocalDateTime dateTime = LocalDateTime.of(LocalDate.now().getYear(), parseMonth(line), day,
+            digit(line, 7) * 10 + digit(line, 8), digit(line, 10) * 10 + digit(line, 11),
+            digit(line, 13) * 10 + digit(line, 14));
+        long t = dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        lastStamp = new Stamp(line.substring(0, STAMP_LENGTH), t);
+        return t;
+    }
+
+    private static int parseMonth(String line) {
+        switch (line.substring(0, 3)) {
+            case "Jan":
+                return 1;
+            case "Feb":
+                return 2;
+            case "Mar":
+                return 3;
+            case "Apr":
+                return 4;
+            case "May":
+                return 5;
+            case "Jun":
+                return 6;
+            case "Jul":
+                return 7;
+            case "Aug":
+                return 8;
+            case "Sep":
+                return 9;
+            case "Oct":
+                return 10;
+            case "Nov":
+                return 11;
+            case "Dec":
+                return 12;
+            default:
+                throw new IllegalArgumentException("no month");
+        }
+    }
+
+    private static int parsePid(String line, int start, int end) {
+        if (start >= end) {
+            throw new IllegalArgumentException("no pid");
+        }
+        int pid = 0;
+        for (int i = start; i < end; i++) {
+            pid = pid * 10 + digit(line, i);
+        }
+        return pid;
+    }
+
+    private static int digit(String line, int index) {
+        int d = line.charAt(index) - '0';
+        if (d < 0 || d > 9) {
+            throw new IllegalArgumentException("not a digit at " + index);
+        }
+        return d;
+    }
+
+    private static final class Stamp {
+        private final String text;
+
+        private final long time;
+
+        Stamp(String text, long time) {
+            this.text = text;
+            this.time = time;
+        }
+    }
+
     static class LogParsingException extends Exception {
         public LogParsingException(String message) {
             super(message);
@@ -74,11 +187,16 @@ public class SysLogLine {
     }
 
     public Date getDate() {
-        return date;
+        return new Date(time);
     }
 
     public String getProcess() {
-        return process;
+        String p = process;
+        if (p == null) {
+            p = original.substring(processStart, processEnd);
+            process = p;
+        }
+        return p;
     }
 
     public int getPid() {
@@ -86,10 +204,20 @@ public class SysLogLine {
     }
 
     public String getLevel() {
-        return level;
+        String l = level;
+        if (l == null) {
+            l = original.substring(levelStart, levelEnd);
+            level = l;
+        }
+        return l;
     }
 
     public String getMessage() {
-        return message;
+        String m = message;
+        if (m == null) {
+            m = original.substring(messageStart, messageEnd);
+            message = m;
+        }
+        return m;
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Assembles syslog lines from bytes, in a reusable byte buffer. A line is decoded from UTF-8 once it is complete, so
+ * multi-byte characters are kept intact. Not thread safe, it is fed by the native capture thread only.
+ */
+class SysLogLineAssembler {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * A buffer grown beyond this by a very long line is dropped after the line, to not hold on to memory.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    private int length = 0;
+
+    /**
+     * Appends a byte of current line, not including line feed.
+     *
+     * @param b next byte
+     */
+    void append(byte b) {
+        if (length == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+        buffer[length++] = b;
+    }
+
+    /**
+     * Appends bytes of current line, not including line feed.
+     *
+     * @param bytes  source bytes
+     * @param offset offset of first byte
+     * @param count  number of bytes
+     */
+    void append(byte[] bytes, int offset, int count) {
+        if (length + count > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    /**
+     * Takes current line, without trailing carriage return, and starts a new one.
+     *
+     * @return decoded line
+     */
+    String takeLine() {
+        int end = length > 0 && buffer[length - 1] == '\r' ? length - 1 : length;
+        String line = new String(buffer, 0, end, StandardCharsets.UTF_8);
+        clear();
+        return line;
+    }
+
+    /**
+     * Drops current line.
+     */
+    void clear() {
+        length = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    int length() {
+        return length;
+    }
+}
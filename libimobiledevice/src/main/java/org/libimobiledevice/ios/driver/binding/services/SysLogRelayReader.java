@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libimobiledevice.ios.driver.binding.services;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+import java.nio.ByteBuffer;
+import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.idevice_free;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.idevice_new;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.syslog_relay_client_free;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.syslog_relay_client_start_service;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.syslog_relay_error_t;
+import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary.syslog_relay_receive_with_timeout;
+
+/**
+ * Reads device syslog from syslog_relay in blocks, into a direct buffer, on its own thread. Each block crosses the
+ * JNA boundary once, instead of once per byte with the capture callback of libimobiledevice-sdk.
+ */
+class SysLogRelayReader implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SysLogRelayReader.class);
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private static final int TIMEOUT_MILLIS = 500;
+
+    private final String uuid;
+
+    private final SyslogMessageListeners handlers;
+
+    private Pointer device;
+
+    private Pointer client;
+
+    private Thread thread;
+
+    private volatile boolean running = false;
+
+    SysLogRelayReader(String uuid, SyslogMessageListeners handlers) {
+        this.uuid = uuid;
+        this.handlers = handlers;
+    }
+
+    void start() throws SDKException {
+        PointerByReference d = new PointerByReference();
+        int res = idevice_new(d, uuid);
+        if (res != 0) {
+            throw new SDKException("Cannot connect to device " + uuid + ", error " + res);
+        }
+        device = d.getValue();
+        PointerByReference c = new PointerByReference();
+        res = syslog_relay_client_start_service(device, c, "ios-driver");
+        if (res != syslog_relay_error_t.SYSLOG_RELAY_E_SUCCESS) {
+            idevice_free(device);
+            device = null;
+            throw new SDKException("Cannot start syslog_relay on device " + uuid + ", error " + res);
+        }
+        client = c.getValue();
+        running = true;
+        thread = new Thread(this, "syslog-" + uuid);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops reading, and frees native resources once the reader thread is done.
+     */
+    void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                LOG.warn("Interrupted stopping syslog of {}", uuid);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            thread = null;
+        }
+        if (client != null) {
+            syslog_relay_client_free(client);
+            client = null;
+        }
+        if (device != null) {
+            idevice_free(device);
+            device = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        IntByReference received = new IntByReference();
+        while (running) {
+            block.clear();
+            received.setValue(0);
+            int res = syslog_relay_receive_with_timeout(client, block, BLOCK_SIZE, received, TIMEOUT_MILLIS);
+            int count = received.getValue();
+            if (count > 0) {
+                block.limit(count);
+                handlers.apply(block);
+            }
+            if (res != syslog_relay_error_t.SYSLOG_RELAY_E_SUCCESS
+                && res != syslog_relay_error_t.SYSLOG_RELAY_E_TIMEOUT
+                && res != syslog_relay_error_t.SYSLOG_RELAY_E_NOT_ENOUGH_DATA) {
+                LOG.warn("Cannot read syslog of {}, error {}", uuid, res);
+                running = false;
+            }
+        }
+        LOG.debug("Stop reading syslog of {}", uuid);
+    }
+}
@@ -15,6 +15,9 @@ package org.libimobiledevice.ios.driver.binding.services;
 
 import com.sun.jna.ptr.PointerByReference;
 import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
+import org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceLibrary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import static org.libimobiledevice.ios.driver.binding.exceptions.SDKErrorCode.throwIfNeeded;
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.sdk_idevice_syslog_service_t;
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.syslog_service_new;
@@ -22,10 +25,50 @@ import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrar
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.syslog_service_stop_capture;
 
 public class SysLogService {
+    private static final Logger LOG = LoggerFactory.getLogger(SysLogService.class);
+
+    /**
+     * Set to false to capture syslog through the per-byte callback of libimobiledevice-sdk, instead of reading
+     * syslog_relay in blocks.
+     */
+    public static final String SYSPROP_BULK_READ = "org.libimobiledevice.syslog.BULK_READ";
+
+    /**
+     * Number of lines queued to each listener, 4096 by default.
+     */
+    public static final String SYSPROP_QUEUE_SIZE = "org.libimobiledevice.syslog.QUEUE_SIZE";
+
+    /**
+     * Overflow policy of listener queues, DROP_OLDEST by default, see {@link OverflowPolicy}.
+     */
+    public static final String SYSPROP_OVERFLOW = "org.libimobiledevice.syslog.OVERFLOW";
+
+    /**
+     * What capture does with a new line, when the queue of a slow listener is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * drops the oldest queued line, capture never waits
+         */
+        DROP_OLDEST,
+        /**
+         * waits for the listener, which stalls capture for all listeners
+         */
+        BLOCK,
+        /**
+         * keeps one of every ten new lines in place of the oldest, and drops the rest
+         */
+        SAMPLE
+    }
+
     private final sdk_idevice_syslog_service_t service;
 
     private final SyslogMessageListeners handlers = new SyslogMessageListeners();
 
+    private final String uuid;
+
+    private SysLogRelayReader relayReader;
+
     private boolean started = false;
 
     SysLogService(IOSDevice d) throws SDKException {
@@ -33,11 +76,28 @@ public class SysLogService {
 
         throwIfNeeded(syslog_service_new(d.getSDKHandle(), ptr));
         service = new sdk_idevice_syslog_service_t(ptr.getValue());
+        uuid = d.getUUID();
     }
 
+    /**
+     * Starts capture, reading syslog_relay in blocks when libimobiledevice is mapped, or through the per-byte
+     * callback otherwise.
+     */
     private void start() throws SDKException {
         if (!started) {
-            throwIfNeeded(syslog_service_start_capture(service, handlers, null));
+            if (Boolean.parseBoolean(System.getProperty(SYSPROP_BULK_READ, "true"))
+                && ImobiledeviceLibrary.isAvailable()) {
+                relayReader = new SysLogRelayReader(uuid, handlers);
+                try {
+                    relayReader.start();
+                } catch (SDKException ex) {
+                    LOG.warn("Cannot read syslog in blocks, use capture callback - {}", ex.getMessage());
+                    relayReader = null;
+                }
+            }
+            if (relayReader == null) {
+                throwIfNeeded(syslog_service_start_capture(service, handlers, null));
+            }
         }
         started = true;
     }
@@ -67,13 +127,67 @@ public class SysLogService {
         handlers.add(listener);
     }
 
+    /**
+     * add an additional listener to syslog, with its own queue. Start the service on the first listener.
+     *
+     * @param listener callback
+     * @param capacity number of lines to queue
+     * @param policy   what to do with a new line when queue is full
+     *
+     * @throws SDKException any issue
+     */
+    public void addListener(SysLogListener listener, int capacity, OverflowPolicy policy) throws SDKException {
+        if (!started) {
+            start();
+        }
+        handlers.add(listener, capacity, policy);
+    }
+
+    /**
+     * Removes a listener, after the lines queued to it are delivered.
+     *
+     * @param listener callback
+     */
     public void remove(SysLogListener listener) {
         handlers.remove(listener);
 
     }
 
+    /**
+     * @return number of lines dropped so far, because listeners were slow
+     */
+    public long getDroppedCount() {
+        return handlers.getDroppedCount();
+    }
+
+    /**
+     * @return number of lines capture waited for so far, because listeners were slow
+     */
+    public long getDelayedCount() {
+        return handlers.getDelayedCount();
+    }
+
+    static int getQueueSize() {
+        return Integer.getInteger(SYSPROP_QUEUE_SIZE, 4096);
+    }
+
+    static OverflowPolicy getOverflowPolicy() {
+        String policy = System.getProperty(SYSPROP_OVERFLOW, OverflowPolicy.DROP_OLDEST.name());
+        try {
+            return OverflowPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warn("Unknown syslog overflow policy {}, use {}", policy, OverflowPolicy.DROP_OLDEST);
+            return OverflowPolicy.DROP_OLDEST;
+        }
+    }
+
     public void stop() throws SDKException {
-        throwIfNeeded(syslog_service_stop_capture(service));
+        if (relayReader != null) {
+            relayReader.stop();
+            relayReader = null;
+        } else {
+            throwIfNeeded(syslog_service_stop_capture(service));
+        }
         started = false;
     }
 }
@@ -14,47 +14,126 @@
 package org.libimobiledevice.ios.driver.binding.services;
 
 import com.sun.jna.Pointer;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static org.libimobiledevice.ios.driver.binding.raw.ImobiledeviceSdkLibrary.sdk_idevice_syslog_service_read_cb_t;
 
+/**
+ * Receives device syslog, either one byte per call from the native capture callback, or in blocks from
+ * SysLogRelayReader. Bytes are assembled into lines in a reusable buffer, and each line is parsed once and queued to
+ * all listeners, each of which is called on its own delivery thread, see SysLogDelivery.
+ */
 public class SyslogMessageListeners implements sdk_idevice_syslog_service_read_cb_t {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogMessageListeners.class);
 
-    private final List<SysLogListener> all = new CopyOnWriteArrayList<>();
+    private final List<SysLogDelivery> all = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong retiredDropped = new AtomicLong();
+
+    private final AtomicLong retiredDelayed = new AtomicLong();
 
-    private StringBuffer buff = new StringBuffer();
+    private final SysLogLineAssembler assembler = new SysLogLineAssembler();
+
+    private byte[] block = new byte[0];
 
     @Override
     public void apply(byte b, Pointer user_data) {
-        char c = (char) b;
-        if (c == '\n') {
-            String line = buff.toString();
-            buff = new StringBuffer();
-            for (SysLogListener h : all) {
-                try {
-                    SysLogLine log = new SysLogLine(line);
-                    h.onLog(log);
-                } catch (SysLogLine.LogParsingException e) {
-                    LOG.trace(e.getMessage());
-                }
+        if (b != '\n') {
+            assembler.append(b);
+            return;
+        }
+        dispatch();
+    }
+
+    /**
+     * Takes a block of syslog bytes, which may hold many lines, and partial lines at both ends.
+     *
+     * @param bytes block of bytes, from position to limit
+     */
+    public void apply(ByteBuffer bytes) {
+        int count = bytes.remaining();
+        if (block.length < count) {
+            block = new byte[count];
+        }
+        bytes.get(block, 0, count);
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            if (block[i] == '\n') {
+                assembler.append(block, start, i - start);
+                dispatch();
+                start = i + 1;
             }
-        } else {
-            buff.append(c);
+        }
+        assembler.append(block, start, count - start);
+    }
+
+    private void dispatch() {
+        if (all.isEmpty()) {
+            assembler.clear();
+            return;
+        }
+        String line = assembler.takeLine();
+        SysLogLine log;
+        try {
+            log = new SysLogLine(line);
+        } catch (SysLogLine.LogParsingException e) {
+            LOG.trace(e.getMessage());
+            return;
+        }
+        for (SysLogDelivery h : all) {
+            h.offer(log);
         }
     }
 
     public void add(SysLogListener listener) {
-        all.add(listener);
+        add(listener, SysLogService.getQueueSize(), SysLogService.getOverflowPolicy());
     }
 
+    /**
+     * Adds a listener, with its own delivery thread and queue.
+     *
+     * @param listener callback
+     * @param capacity number of lines to queue
+     * @param policy   what to do with a new line when queue is full
+     */
+    public void add(SysLogListener listener, int capacity, SysLogService.OverflowPolicy policy) {
+        all.add(new SysLogDelivery(listener, capacity, policy));
+    }
+
+    /**
+     * Removes a listener, after the lines queued to it are delivered.
+     *
+     * @param listener callback
+     */
     public void remove(SysLogListener listener) {
-        all.remove(listener);
+        for (SysLogDelivery h : all) {
+            if (h.getListener() == listener && all.remove(h)) {
+                h.close();
+                retiredDropped.addAndGet(h.getDroppedCount());
+                retiredDelayed.addAndGet(h.getDelayedCount());
+            }
+        }
     }
 
     public int size() {
         return all.size();
     }
+
+    /**
+     * @return number of lines dropped by all listeners, because their queues were full
+     */
+    public long getDroppedCount() {
+        return retiredDropped.get() + all.stream().mapToLong(SysLogDelivery::getDroppedCount).sum();
+    }
+
+    /**
+     * @return number of lines capture waited for, because queues of listeners were full
+     */
+    public long getDelayedCount() {
+        return retiredDelayed.get() + all.stream().mapToLong(SysLogDelivery::getDelayedCount).sum();
+    }
 }
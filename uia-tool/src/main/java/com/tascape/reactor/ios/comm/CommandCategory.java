@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+/**
+ * Kinds of JavaScript requests, which differ in latency on device, so that each has its own latency histogram and
+ * timeout.
+ *
+ * @author linsong wang
+ */
+public enum CommandCategory {
+    /**
+     * tap, drag, type and other interactions
+     */
+    ACTION,
+    /**
+     * element tree dump
+     */
+    TREE,
+    /**
+     * screen capture
+     */
+    SCREENSHOT,
+    /**
+     * wait loop on device, which may run up to its own timeout, and always gets the global timeout
+     */
+    WAIT,
+    /**
+     * state query, and anything else
+     */
+    QUERY;
+
+    private static final LinePatterns WAITS = LinePatterns.of(".delay(", "ForDuration(", ".touchAndHold(");
+
+    private static final LinePatterns TREES = LinePatterns.of(".logElementTree(", "elementTree(");
+
+    private static final LinePatterns SCREENSHOTS = LinePatterns.of(".captureScreenWithName(", ".captureRectWithName(");
+
+    private static final LinePatterns ACTIONS = LinePatterns.of(".tap(", ".doubleTap(", ".twoFingerTap(",
+        ".tapWithOptions(", ".dragInsideWithOptions(", ".flickFromTo(", ".flickInsideWithOptions(", ".setValue(",
+        ".typeString(", ".scrollToVisible(");
+
+    /**
+     * Tells the category of a JavaScript snippet by the UIAutomation method calls in it, so that element names and
+     * other strings in the snippet do not count.
+     *
+     * @param javaScript JavaScript to run on device
+     *
+     * @return category
+     */
+    public static CommandCategory of(String javaScript) {
+        if (WAITS.matches(javaScript)) {
+            return WAIT;
+        }
+        if (TREES.matches(javaScript)) {
+            return TREE;
+        }
+        if (SCREENSHOTS.matches(javaScript)) {
+            return SCREENSHOT;
+        }
+        if (ACTIONS.matches(javaScript)) {
+            return ACTION;
+        }
+        return QUERY;
+    }
+}
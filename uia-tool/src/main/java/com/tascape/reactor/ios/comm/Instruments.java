@@ -15,27 +15,17 @@
  */
 package com.tascape.reactor.ios.comm;
 
-import com.google.common.collect.Lists;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecuteResultHandler;
-import org.apache.commons.exec.ExecuteStreamHandler;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.Executor;
 import org.apache.commons.io.FileUtils;
 import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.martiansoftware.nailgun.NGServer;
 import com.tascape.reactor.ios.driver.UiAutomationDevice;
-import net.sf.lipermi.exception.LipeRMIException;
-import net.sf.lipermi.handler.CallHandler;
-import net.sf.lipermi.net.Server;
 import com.tascape.reactor.ios.model.UIAException;
 import com.tascape.reactor.SystemConfiguration;
 import com.tascape.reactor.Utils;
@@ -44,25 +34,29 @@ import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Observable;
+import java.util.Map;
 import java.util.Observer;
-import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONTokener;
 
 /**
  *
  * @author linsong wang
  */
-public class Instruments extends EntityCommunication implements JavaScriptServer, Observer {
+public class Instruments extends EntityCommunication implements JavaScriptServer {
     private static final Logger LOG = LoggerFactory.getLogger(Instruments.class);
 
     public static final String SYSPROP_JS_TIMEOUT_SECOND = "reactor.comm.ios.JS_TIMEOUT_SECOND";
@@ -82,30 +76,128 @@ public class Instruments extends EntityCommunication implements JavaScriptServer
     public static final int JAVASCRIPT_TIMEOUT_SECOND
         = SystemConfiguration.getInstance().getIntProperty(SYSPROP_JS_TIMEOUT_SECOND, 120);
 
-    private final String INSTRUMENTS_POISON = "POISON-" + UUID.randomUUID().toString();
+    public static final String SYSPROP_ADAPTIVE_TIMEOUT = "reactor.comm.ios.ADAPTIVE_TIMEOUT";
+
+    public static final String SYSPROP_TIMEOUT_FACTOR = "reactor.comm.ios.TIMEOUT_FACTOR";
+
+    public static final String SYSPROP_TIMEOUT_FLOOR_SECOND = "reactor.comm.ios.TIMEOUT_FLOOR_SECOND";
+
+    /**
+     * Derives the timeout of a request from observed p99.9 latency of its category, times TIMEOUT_FACTOR, between
+     * TIMEOUT_FLOOR_SECOND and JAVASCRIPT_TIMEOUT_SECOND. Wait loops on device always get JAVASCRIPT_TIMEOUT_SECOND.
+     */
+    public static final boolean ADAPTIVE_TIMEOUT
+        = SystemConfiguration.getInstance().getBooleanProperty(SYSPROP_ADAPTIVE_TIMEOUT, true);
+
+    public static final int TIMEOUT_FACTOR
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_TIMEOUT_FACTOR, 4);
+
+    public static final int TIMEOUT_FLOOR_SECOND
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_TIMEOUT_FLOOR_SECOND, 20);
+
+    /**
+     * Number of latency samples of a category before its timeout adapts.
+     */
+    private static final int TIMEOUT_MIN_SAMPLES = 100;
+
+    public static final String SYSPROP_MAX_FETCHES = "reactor.comm.ios.MAX_FETCHES";
+
+    /**
+     * Max number of script fetches served at the same time, of all devices in this JVM. Each running instruments keeps
+     * one fetch waiting for JavaScript, so this is also the max number of devices served.
+     */
+    public static final int MAX_FETCHES = SystemConfiguration.getInstance().getIntProperty(SYSPROP_MAX_FETCHES, 64);
+
+    /**
+     * Max number of queued requests sent to device in one fetch.
+     */
+    public static final int PIPELINE_DEPTH = 16;
+
+    public static final String SYSPROP_CAPTURE_RETENTION = "reactor.comm.ios.CAPTURE_RETENTION";
+
+    /**
+     * Max number of stray screen captures left in UIARESULTSPATH.
+     */
+    public static final int CAPTURE_RETENTION
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_CAPTURE_RETENTION, 20);
+
+    private static final long CAPTURE_TIMEOUT_MILLIS = 5000;
+
+    private static final int FETCH_TIMEOUT_MILLIS = 10000;
+
+    private static final int FETCH_IDLE_MILLIS = FETCH_TIMEOUT_MILLIS / 2;
+
+    /**
+     * Max number of result chars sent by device in one fetch, well below the argument size limit of a host task.
+     */
+    private static final int RESULT_CHUNK = 65536;
+
+    /**
+     * Helper functions defined on device. __result queues a result frame of a structured request, non-ASCII chars are
+     * escaped so that frame length is the same on both ends. Queued frames are sent in numbered chunks, and a chunk
+     * is dropped on device only after a successful fetch, so a failed fetch resends the same chunk. elementTree(e)
+     * returns element e and its descendants as compact JSON, {t: type, n: name, r: [x, y, w, h], c: [children]}.
+     */
+    private static final String DEVICE_FUNCTIONS = new StringBuilder()
+        .append("var __results = '';\n")
+        .append("var __seq = 0;\n")
+        .append("function __ascii(s) {\n")
+        .append("  return s.replace(/[\\u0000-\\u001f\\u007f-\\uffff]/g, function(c) {\n")
+        .append("    return '\\\\u' + ('000' + c.charCodeAt(0).toString(16)).slice(-4);\n")
+        .append("  });\n")
+        .append("}\n")
+        .append("function __result(id, error, value) {\n")
+        .append("  var body = id + (error === null\n")
+        .append("    ? ' =' + __ascii(JSON.stringify(value === undefined ? null : value)) : ' !' + __ascii(error + ''));\n")
+        .append("  __results += body.length + ':' + body;\n")
+        .append("}\n")
+        .append("function elementTree(e) {\n")
+        .append("  var r = e.rect();\n")
+        .append("  var node = {t: String(e).slice(8, -1), n: e.name(),\n")
+        .append("    r: [r.origin.x, r.origin.y, r.size.width, r.size.height]};\n")
+        .append("  var es = e.elements();\n")
+        .append("  if (es.length > 0) {\n")
+        .append("    node.c = [];\n")
+        .append("    for (var i = 0; i < es.length; i++) {\n")
+        .append("      node.c.push(elementTree(es[i]));\n")
+        .append("    }\n")
+        .append("  }\n")
+        .append("  return node;\n")
+        .append("}\n")
+        .toString();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "instruments-timeout");
+        t.setDaemon(true);
+        return t;
+    });
 
     static {
         Executors.newScheduledThreadPool(1).scheduleAtFixedRate(new CacheCleaner(), 0, 15, TimeUnit.MINUTES);
     }
 
-    private final SynchronousQueue<String> javaScriptQueue = new SynchronousQueue<>();
+    private final BlockingQueue<JavaScriptRequest> javaScriptQueue = new LinkedBlockingQueue<>();
+
+    private final ResponseDemultiplexer demultiplexer = new ResponseDemultiplexer();
 
-    private final BlockingQueue<String> responseQueue = new ArrayBlockingQueue<>(5000);
+    private final ResultFrameReader resultReader = new ResultFrameReader();
 
-    private int ngPort;
+    private final Map<CommandCategory, LatencyHistogram> latencies = new EnumMap<>(CommandCategory.class);
 
-    private int rmiPort = 38998;
+    private int session;
 
-    private NGServer ngServer;
+    private NailGunHost nailGun;
 
-    private Server rmiServer;
+    private volatile ExecuteWatchdog instrumentsDog;
 
-    private ExecuteWatchdog instrumentsDog;
+    private volatile DefaultExecuteResultHandler instrumentsResult;
 
-    private ESH instrumentsStreamHandler;
+    private InstrumentsOutput instrumentsOutput;
 
     private final Path uiaResultsPath = Paths.get(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
 
+    private final ScreenCaptures screenCaptures = new ScreenCaptures(uiaResultsPath, CAPTURE_RETENTION);
+
     private final String uuid;
 
     private final String appName;
@@ -120,179 +212,371 @@ public class Instruments extends EntityCommunication implements JavaScriptServer
     public Instruments(String uuid, String appName) throws SDKException {
         this.uuid = uuid;
         this.appName = appName;
+        for (CommandCategory category : CommandCategory.values()) {
+            latencies.put(category, new LatencyHistogram());
+        }
     }
 
     public void setPreTargetJavaScript(String javaScript) {
         this.preTargetJavaScript = javaScript;
     }
 
+    public String getPreTargetJavaScript() {
+        return preTargetJavaScript;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
     @Override
     public void connect() throws Exception {
         LOG.debug("Start app {} on {}", appName, uuid);
-        if (ngServer == null) {
-            ngServer = this.startNailGunServer();
+        if (nailGun == null) {
+            nailGun = NailGunHost.acquire();
         }
-        if (rmiServer == null) {
-            rmiServer = this.startRmiServer();
+        if (session == 0) {
+            session = JavaScriptSessions.register(this);
         }
+        screenCaptures.reset();
         instrumentsDog = this.startInstrumentsServer(appName);
     }
 
     @Override
     public void disconnect() {
         javaScriptQueue.clear();
-        responseQueue.clear();
+        demultiplexer.reset();
+        resultReader.reset();
         if (instrumentsDog != null) {
             LOG.trace("Stop instruments on {}", uuid);
-            instrumentsStreamHandler.deleteObservers();
+            instrumentsOutput.close();
             instrumentsDog.stop();
             instrumentsDog.killedProcess();
+            instrumentsDog = null;
         }
     }
 
+    /**
+     * Checks if instruments process is still running since last connect. A disconnected instance is not dead.
+     *
+     * @return false if instruments process exited without being disconnected
+     */
+    public boolean isAlive() {
+        // the watchdog blocks until process starts, which never happens if instruments cannot be launched
+        DefaultExecuteResultHandler result = instrumentsResult;
+        return instrumentsDog == null || result == null || !result.hasResult();
+    }
+
+    /**
+     * Checks if instruments process was started, and not disconnected since.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return instrumentsDog != null;
+    }
+
+    /**
+     * Prepares a running session for reuse, failing requests left from previous use, and runs JavaScript to reset
+     * app state.
+     *
+     * @param resetJavaScript JavaScript to run on device, or empty
+     */
+    public void resetSession(String resetJavaScript) {
+        javaScriptQueue.clear();
+        demultiplexer.reset();
+        if (StringUtils.isNotBlank(resetJavaScript)) {
+            this.runJavaScript(resetJavaScript).forEach(l -> LOG.trace(l));
+        }
+    }
+
+    /**
+     * Gets latencies of requests of a category, from submit to response, since this instance was created.
+     *
+     * @param category command category
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatency(CommandCategory category) {
+        return latencies.get(category);
+    }
+
+    /**
+     * Gets the current timeout of requests of a category, see ADAPTIVE_TIMEOUT.
+     *
+     * @param category command category
+     *
+     * @return timeout in milliseconds
+     */
+    public long getTimeoutMillis(CommandCategory category) {
+        long max = JAVASCRIPT_TIMEOUT_SECOND * 1000L;
+        LatencyHistogram latency = latencies.get(category);
+        if (!ADAPTIVE_TIMEOUT || category == CommandCategory.WAIT || latency.getCount() < TIMEOUT_MIN_SAMPLES) {
+            return max;
+        }
+        long adaptive = latency.getValueAtPercentile(99.9) * TIMEOUT_FACTOR;
+        return Math.max(TIMEOUT_FLOOR_SECOND * 1000L, Math.min(max, adaptive));
+    }
+
     public void shutdown() {
+        latencies.forEach((category, latency) -> {
+            if (latency.getCount() > 0) {
+                LOG.debug("{} {} latency {}, timeout {} ms", uuid, category, latency, getTimeoutMillis(category));
+            }
+        });
         this.disconnect();
-        if (ngServer != null) {
-            ngServer.shutdown(false);
+        if (nailGun != null) {
+            NailGunHost.release(nailGun);
+            nailGun = null;
         }
-        if (rmiServer != null) {
-            rmiServer.close();
+        if (session != 0) {
+            JavaScriptSessions.unregister(session);
+            session = 0;
         }
     }
 
     public List<String> runJavaScript(String javaScript) {
-        if (responseQueue.contains(INSTRUMENTS_POISON)) {
-            responseQueue.clear();
-            throw new UIAException("Instruments start error");
-        }
-        responseQueue.clear();
-        String reqId = UUID.randomUUID().toString();
-        LOG.trace("sending js {}", javaScript);
         try {
-            javaScriptQueue.offer("UIALogger.logMessage('" + reqId + " start');", JAVASCRIPT_TIMEOUT_SECOND,
-                TimeUnit.SECONDS);
-            javaScriptQueue.offer(javaScript, JAVASCRIPT_TIMEOUT_SECOND, TimeUnit.SECONDS);
-            javaScriptQueue.offer("UIALogger.logMessage('" + reqId + " stop');", JAVASCRIPT_TIMEOUT_SECOND,
-                TimeUnit.SECONDS);
+            return runJavaScriptAsync(javaScript).get();
         } catch (InterruptedException ex) {
             throw new UIAException("Interrupted", ex);
-        }
-        while (true) {
-            String res;
-            try {
-                res = this.responseQueue.poll(JAVASCRIPT_TIMEOUT_SECOND, TimeUnit.SECONDS);
-            } catch (InterruptedException ex) {
-                throw new UIAException("Interrupted", ex);
-            }
-            if (res == null) {
-                throw new UIAException("no response from device");
-            }
-            LOG.trace(res);
-            if (res.contains(reqId + " start")) {
-                break;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UIAException) {
+                throw (UIAException) ex.getCause();
             }
+            throw new UIAException("instruments error", ex.getCause());
         }
-        List<String> lines = new ArrayList<>();
-        while (true) {
-            String res;
-            try {
-                res = this.responseQueue.poll(JAVASCRIPT_TIMEOUT_SECOND, TimeUnit.SECONDS);
-            } catch (InterruptedException ex) {
-                throw new UIAException("Interrupted", ex);
-            }
-            if (res == null) {
-                break;
-            }
-            if (res.contains(reqId + " start")) {
-                LOG.trace(res);
-                continue;
-            }
-            if (res.contains(reqId + " stop")) {
-                LOG.trace(res);
-                break;
-            } else {
-                lines.add(res);
-            }
-            if (res.contains(INSTRUMENTS_ERROR) || res.contains(APP_DEAD)) {
-                LOG.error(res);
-                break;
+    }
+
+    /**
+     * Queues JavaScript to run on device without blocking the caller. The returned future is completed by the
+     * instruments output reader, or by timeout after {@link #JAVASCRIPT_TIMEOUT_SECOND}; dependent stages that do
+     * real work should use the async variants to stay off the reader thread. Cancelling the future drops the request
+     * if it has not been sent to device yet.
+     *
+     * @param javaScript JavaScript to run
+     *
+     * @return future of response lines, completed exceptionally with UIAException in case of error
+     */
+    public CompletableFuture<List<String>> runJavaScriptAsync(String javaScript) {
+        return this.send(new JavaScriptRequest(javaScript));
+    }
+
+    /**
+     * Runs a JavaScript function body on device, and gets its return value as JSON. The value is sent back along with
+     * the next fetch by device, through the JavaScriptServer channel, instead of instruments output. Function
+     * elementTree(e) is available to get an element and its descendants, such as "return elementTree(window);".
+     *
+     * @param javaScript function body, with a return statement of a JSON compatible value
+     *
+     * @return return value, as JSONObject, JSONArray, String, Number, Boolean, or JSONObject.NULL
+     *
+     * @throws UIAException in case of JavaScript error
+     */
+    public Object callJavaScript(String javaScript) {
+        try {
+            return callJavaScriptAsync(javaScript).get();
+        } catch (InterruptedException ex) {
+            throw new UIAException("Interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UIAException) {
+                throw (UIAException) ex.getCause();
             }
+            throw new UIAException("instruments error", ex.getCause());
         }
-        javaScriptQueue.clear();
-        Stream<String> err = lines.stream().filter(l -> l.contains(INSTRUMENTS_ERROR) || l.contains(APP_DEAD));
-        if (err.findAny().isPresent()) {
-            throw new UIAException("instruments error " + err);
+    }
+
+    /**
+     * Runs a JavaScript function body on device without blocking the caller, see {@link #callJavaScript(String)}.
+     *
+     * @param javaScript function body, with a return statement of a JSON compatible value
+     *
+     * @return future of return value, completed exceptionally with UIAException in case of error
+     */
+    public CompletableFuture<Object> callJavaScriptAsync(String javaScript) {
+        return this.send(new JavaScriptRequest(javaScript, true))
+            .thenApply(lines -> new JSONTokener(lines.get(0)).nextValue());
+    }
+
+    private CompletableFuture<List<String>> send(JavaScriptRequest request) {
+        CompletableFuture<List<String>> response = request.getResponse();
+        if (!this.submit(request)) {
+            return response;
         }
-        return lines;
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> this.expire(request),
+            getTimeoutMillis(request.getCategory()), TimeUnit.MILLISECONDS);
+        response.whenComplete((lines, ex) -> {
+            timeout.cancel(false);
+            if (response.isCancelled()) {
+                javaScriptQueue.remove(request);
+                demultiplexer.unregister(request);
+            } else if (ex == null || request.isExpired()) {
+                // a timed out request counts at its timeout, so that a slow device pushes its timeouts up
+                latencies.get(request.getCategory()).record(request.getElapsedMillis());
+            }
+        });
+        return response;
     }
 
+    /**
+     * Sends all queued requests to device in one payload. The call returns an empty script when there is nothing to
+     * run for a while, so that device side fetch never times out with a request in hand.
+     *
+     * @return JavaScript to be evaluated on device
+     *
+     * @throws InterruptedException in case of interruption
+     */
     @Override
     public String retrieveJavaScript() throws InterruptedException {
-        String js = javaScriptQueue.take();
-        LOG.trace("got js {}", js);
-        return js;
+        JavaScriptRequest request = javaScriptQueue.poll(FETCH_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (request == null) {
+            return "";
+        }
+        List<JavaScriptRequest> requests = new ArrayList<>();
+        requests.add(request);
+        javaScriptQueue.drainTo(requests, PIPELINE_DEPTH - 1);
+        StringBuilder js = new StringBuilder();
+        requests.forEach(r -> js.append(r.toPayload()));
+        LOG.trace("got {} js {}", requests.size(), js);
+        return js.toString();
     }
 
-    public boolean addInstrumentsStreamObserver(Observer observer) {
-        if (this.instrumentsStreamHandler != null) {
-            this.instrumentsStreamHandler.addObserver(observer);
+    /**
+     * Takes structured results from device, then sends queued requests. If the last result frame is not complete yet,
+     * the call returns an empty script right away, so that device sends the rest with next fetch.
+     *
+     * @param results sequence number and chunk of result frames, as {@code <seq>:<chunk>}
+     *
+     * @return JavaScript to be evaluated on device
+     *
+     * @throws InterruptedException in case of interruption
+     */
+    @Override
+    public String retrieveJavaScript(String results) throws InterruptedException {
+        if (resultReader.accept(results)) {
+            resultReader.append(results.substring(results.indexOf(':') + 1)).forEach(demultiplexer::onResult);
+            if (resultReader.hasPartial()) {
+                return "";
+            }
+        }
+        return this.retrieveJavaScript();
+    }
+
+    /**
+     * Queues a request to device, or fails its response right away if there is no running instruments process to
+     * take it, instead of leaving it to timeout.
+     *
+     * @param request request
+     *
+     * @return true if queued
+     */
+    private boolean submit(JavaScriptRequest request) {
+        if (demultiplexer.clearPoison()) {
+            request.getResponse().completeExceptionally(new UIAException("Instruments start error"));
+            return false;
+        }
+        if (!isConnected() || !isAlive()) {
+            request.getResponse().completeExceptionally(new UIAException("instruments is not running on " + uuid));
+            return false;
+        }
+        LOG.trace("sending js {}", request.getJavaScript());
+        demultiplexer.register(request);
+        javaScriptQueue.offer(request);
+        return true;
+    }
+
+    private void expire(JavaScriptRequest request) {
+        request.expire();
+        javaScriptQueue.remove(request);
+        demultiplexer.unregister(request);
+        if (request.isStructured()) {
+            // structured requests have no start marker, their result frame may be on its way in chunks
+            request.getResponse().completeExceptionally(new UIAException("no result of structured request after "
+                + request.getElapsedMillis() + " ms" + (resultReader.hasPartial() ? ", result frame incomplete" : "")));
+            return;
+        }
+        if (!request.isStarted()) {
+            request.getResponse().completeExceptionally(new UIAException("no response from device"));
+            return;
+        }
+        // a partial response, such as part of an element tree, must not pass for a whole one
+        LOG.warn("no stop marker of request {}", request.getId());
+        request.getResponse().completeExceptionally(new UIAException("timeout of " + request.getCategory()
+            + " request after " + request.getElapsedMillis() + " ms, with " + request.getLines().size() + " lines"));
+    }
+
+    /**
+     * Adds a listener of output lines of the running instruments process. Listeners are dropped on disconnect.
+     *
+     * @param listener listener
+     *
+     * @return false if instruments is not started
+     */
+    public boolean addOutputListener(InstrumentsOutputListener listener) {
+        InstrumentsOutput out = this.instrumentsOutput;
+        if (out != null) {
+            out.addListener(listener);
             return true;
         }
         return false;
     }
 
-    @Override
-    public void update(Observable o, Object arg) {
-        String res = arg.toString();
-        try {
-            responseQueue.put(res);
-        } catch (InterruptedException ex) {
-            LOG.error("Cannot save instruments response");
-        }
+    /**
+     * Adds an observer of output lines of the running instruments process, notified with each line as argument, and
+     * stderr lines prefixed with "iERROR ", as before the output pipeline. The Observable argument is null.
+     *
+     * @param observer observer
+     *
+     * @return false if instruments is not started
+     *
+     * @deprecated use {@link #addOutputListener(InstrumentsOutputListener)}
+     */
+    @Deprecated
+    public boolean addInstrumentsStreamObserver(Observer observer) {
+        return this.addOutputListener((kind, line) -> observer.update(null,
+            kind == InstrumentsOutputListener.Kind.ERROR ? InstrumentsOutput.ERROR_PREFIX + line : line));
     }
 
     public Path getUiaResultsPath() {
         return uiaResultsPath;
     }
 
-    private NGServer startNailGunServer() throws InterruptedException {
-        NGServer ngs = new NGServer(null, 0);
-        new Thread(ngs).start();
-        Thread.sleep(1000);
-        this.ngPort = ngs.getPort();
-        LOG.trace("ng port {}", this.ngPort);
-        return ngs;
-    }
-
-    private Server startRmiServer() throws IOException, LipeRMIException, InterruptedException {
-        Server rmis = new Server();
-        CallHandler callHandler = new CallHandler();
-        while (true) {
-            try {
-                rmis.bind(rmiPort, callHandler);
-                break;
-            } catch (IOException ex) {
-                LOG.trace("rmi port {} - {}", this.rmiPort, ex.getMessage());
-                this.rmiPort += 1;
-                Utils.sleep(new Random().nextInt(200) + 100L, "wait to try port " + rmiPort);
-            }
-        }
-        LOG.trace("rmi port {}", this.rmiPort);
-        callHandler.registerGlobal(JavaScriptServer.class, this);
-        return rmis;
+    /**
+     * Moves a screen capture, taken with target.captureScreenWithName(), out of UIARESULTSPATH.
+     *
+     * @param name   image name of the capture
+     * @param target target file
+     *
+     * @throws IOException          if capture is not found or cannot be moved
+     * @throws InterruptedException if interrupted while waiting for the capture
+     */
+    public void moveScreenCapture(String name, File target) throws IOException, InterruptedException {
+        screenCaptures.moveCapture(name, target.toPath(), CAPTURE_TIMEOUT_MILLIS);
     }
 
     private ExecuteWatchdog startInstrumentsServer(String appName) throws IOException, InterruptedException {
         StringBuilder sb = new StringBuilder()
             .append(this.preTargetJavaScript).append("\n")
+            .append(DEVICE_FUNCTIONS)
             .append("while (1) {\n")
             .append("  var target = UIATarget.localTarget();\n")
             .append("  var host = target.host();\n")
             .append("  var app = target.frontMostApp();\n")
             .append("  var window = app.mainWindow();\n")
+            .append("  var results = __results.substring(0, ").append(RESULT_CHUNK).append(");\n")
             .append("  var js = host.performTaskWithPathArgumentsTimeout('").append(JavaScriptNail.NG_CLIENT)
-            .append("', ['--nailgun-port', '").append(ngPort).append("', '").append(JavaScriptNail.class.getName())
-            .append("', '").append(rmiPort).append("'], 10000);\n")
+            .append("', ['--nailgun-port', '").append(nailGun.getPort())
+            .append("', '").append(JavaScriptNail.class.getName()).append("', '").append(session)
+            .append("', '#' + (__seq + 1) + ':' + results], ")
+            .append(FETCH_TIMEOUT_MILLIS).append(");\n")
+            .append("  if (js.exitCode == 0 && results.length > 0) {\n")
+            .append("    __results = __results.substring(results.length);\n")
+            .append("    __seq++;\n")
+            .append("  }\n")
             .append("  UIALogger.logDebug(js.stdout);\n")
             .append("  try {\n")
             .append("    var res = eval(js.stdout);\n")
@@ -324,91 +608,13 @@ public class Instruments extends EntityCommunication implements JavaScriptServer
         ExecuteWatchdog watchdog = new ExecuteWatchdog(Long.MAX_VALUE);
         Executor executor = new DefaultExecutor();
         executor.setWatchdog(watchdog);
-        instrumentsStreamHandler = new ESH();
-        instrumentsStreamHandler.addObserver(this);
-        executor.setStreamHandler(instrumentsStreamHandler);
-        executor.execute(cmdLine, new DefaultExecuteResultHandler());
+        instrumentsOutput = new InstrumentsOutput(uuid, demultiplexer);
+        executor.setStreamHandler(instrumentsOutput);
+        instrumentsResult = new DefaultExecuteResultHandler();
+        executor.execute(cmdLine, instrumentsResult);
         return watchdog;
     }
 
-    private static final List<String> START_ERRORS = Lists.newArrayList(new String[]{
-        "Target failed to run:",
-        "Instruments Usage Error:" //        "Fail: The target application appears to have died"
-    });
-
-    private static final List<String> WARNINGS = Lists.newArrayList(new String[]{
-        "WebKit Threading Violation - initial use of WebKit from a secondary thread.",
-        "<Error>: CGImageCreateWithImageProvider: invalid image size:",
-        "Attempting to change event horizon while disengage"
-    });
-
-    private class ESH extends Observable implements ExecuteStreamHandler {
-
-        @Override
-        public void setProcessInputStream(OutputStream out) throws IOException {
-        }
-
-        @Override
-        public void setProcessErrorStream(InputStream in) throws IOException {
-            BufferedReader bis = new BufferedReader(new InputStreamReader(in));
-            while (true) {
-                String line = bis.readLine();
-                if (line == null) {
-                    break;
-                }
-                if (isErrorToStart(line)) {
-                    try {
-                        Instruments.this.responseQueue.put(INSTRUMENTS_POISON);
-                    } catch (InterruptedException ex) {
-                        LOG.error("interrupted", ex);
-                    }
-                }
-                if (isError(line)) {
-                    LOG.error(line);
-                    this.notifyObserversX("iERROR " + line);
-                } else {
-                    LOG.warn(line);
-                    this.notifyObserversX(line);
-                }
-            }
-        }
-
-        @Override
-        public void setProcessOutputStream(InputStream in) throws IOException {
-            BufferedReader bis = new BufferedReader(new InputStreamReader(in));
-            while (true) {
-                String line = bis.readLine();
-                if (line == null) {
-                    break;
-                }
-                LOG.trace(line);
-                this.notifyObserversX(line);
-            }
-        }
-
-        @Override
-        public void start() throws IOException {
-        }
-
-        @Override
-        public void stop() {
-        }
-
-        private boolean isErrorToStart(String line) {
-            return START_ERRORS.stream().anyMatch((error) -> (line.contains(error)));
-        }
-
-        private boolean isError(String line) {
-            return WARNINGS.stream().noneMatch((warn) -> (line.contains(warn)));
-        }
-
-        private void notifyObserversX(String line) {
-            this.setChanged();
-            this.notifyObservers(line);
-            this.clearChanged();
-        }
-    }
-
     private static class CacheCleaner implements Runnable {
         private final File cacheDir = Paths.get(CACHE_DIR).toFile();
 
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.exec.ExecuteStreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipeline of instruments process output. Stdout and stderr are read on their own threads, each into its own
+ * single-producer ring, and one output thread takes lines from both rings, logs them, and hands them to the request
+ * demultiplexer and to listeners. Lines are tagged with one sequence number shared by both readers, and taken in that
+ * order, so that stdout and stderr lines keep their order of arrival. Readers never block on a lock, and wait only if
+ * a ring is full.
+ *
+ * @author linsong wang
+ */
+final class InstrumentsOutput implements ExecuteStreamHandler, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(InstrumentsOutput.class);
+
+    private static final int RING_CAPACITY = 4096;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Prefix of stderr lines handed to the demultiplexer.
+     */
+    static final String ERROR_PREFIX = "iERROR ";
+
+    private static final LinePatterns START_ERRORS = LinePatterns.of(
+        "Target failed to run:",
+        "Instruments Usage Error:" //        "Fail: The target application appears to have died"
+    );
+
+    private static final LinePatterns WARNINGS = LinePatterns.of(
+        "WebKit Threading Violation - initial use of WebKit from a secondary thread.",
+        "<Error>: CGImageCreateWithImageProvider: invalid image size:",
+        "Attempting to change event horizon while disengage"
+    );
+
+    private final String uuid;
+
+    private final ResponseDemultiplexer demultiplexer;
+
+    private final List<InstrumentsOutputListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final LineRing output = new LineRing(RING_CAPACITY);
+
+    private final LineRing errors = new LineRing(RING_CAPACITY);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger openStreams = new AtomicInteger(2);
+
+    private Thread consumer;
+
+    private InputStream outputStream;
+
+    private InputStream errorStream;
+
+    private volatile boolean waiting = false;
+
+    private volatile boolean closed = false;
+
+    InstrumentsOutput(String uuid, ResponseDemultiplexer demultiplexer) {
+        this.uuid = uuid;
+        this.demultiplexer = demultiplexer;
+    }
+
+    void addListener(InstrumentsOutputListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops handing lines to demultiplexer and listeners, remaining output is read and dropped.
+     */
+    void close() {
+        closed = true;
+        listeners.clear();
+        wakeConsumer();
+    }
+
+    @Override
+    public void setProcessInputStream(OutputStream out) throws IOException {
+    }
+
+    @Override
+    public void setProcessErrorStream(InputStream in) throws IOException {
+        this.errorStream = in;
+    }
+
+    @Override
+    public void setProcessOutputStream(InputStream in) throws IOException {
+        this.outputStream = in;
+    }
+
+    @Override
+    public void start() throws IOException {
+        consumer = new Thread(this, "instruments-output-" + uuid);
+        consumer.setDaemon(true);
+        consumer.start();
+        startReader(outputStream, output, false, "instruments-stdout-" + uuid);
+        startReader(errorStream, errors, true, "instruments-stderr-" + uuid);
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    private void startReader(InputStream in, LineRing ring, boolean stderr, String name) {
+        Thread reader = new Thread(() -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (stderr && START_ERRORS.matches(line)) {
+                        demultiplexer.onSignal(ResponseDemultiplexer.Signal.START_ERROR, line);
+                    }
+                    publish(ring, line, sequence.getAndIncrement());
+                }
+            } catch (IOException ex) {
+                LOG.debug("Cannot read instruments output - {}", ex.getMessage());
+            } finally {
+                openStreams.decrementAndGet();
+                wakeConsumer();
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void publish(LineRing ring, String line, long seq) {
+        while (!ring.offer(line, seq)) {
+            wakeConsumer();
+            LockSupport.parkNanos(this, FULL_NANOS);
+        }
+        if (waiting) {
+            wakeConsumer();
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread t = consumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            int count = drain();
+            if (count > 0) {
+                continue;
+            }
+            if (openStreams.get() == 0 && output.isEmpty() && errors.isEmpty()) {
+                break;
+            }
+            waiting = true;
+            if (output.isEmpty() && errors.isEmpty() && openStreams.get() > 0) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            waiting = false;
+        }
+        LOG.trace("instruments output of {} ends", uuid);
+        if (!closed) {
+            demultiplexer.onSignal(ResponseDemultiplexer.Signal.PROCESS_EXIT, "instruments process exited");
+        }
+    }
+
+    /**
+     * Takes lines from both rings, the one with lower sequence number first.
+     */
+    private int drain() {
+        int count = 0;
+        while (true) {
+            long out = output.peekSequence();
+            long err = errors.peekSequence();
+            if (out == Long.MAX_VALUE && err == Long.MAX_VALUE) {
+                return count;
+            }
+            boolean stderr = err < out;
+            String line = stderr ? errors.poll() : output.poll();
+            count++;
+            if (!closed) {
+                dispatch(line, stderr);
+            }
+        }
+    }
+
+    private void dispatch(String line, boolean stderr) {
+        InstrumentsOutputListener.Kind kind;
+        if (!stderr) {
+            LOG.trace(line);
+            kind = InstrumentsOutputListener.Kind.OUTPUT;
+            if (line.contains(Instruments.APP_DEAD)) {
+                LOG.error(line);
+                demultiplexer.onSignal(ResponseDemultiplexer.Signal.APP_DEAD, line);
+            } else if (line.contains(Instruments.INSTRUMENTS_ERROR)) {
+                LOG.error(line);
+                demultiplexer.onSignal(ResponseDemultiplexer.Signal.SCRIPT_ERROR, line);
+            } else {
+                demultiplexer.onLine(line);
+            }
+        } else if (WARNINGS.matches(line)) {
+            LOG.warn(line);
+            kind = InstrumentsOutputListener.Kind.WARNING;
+            demultiplexer.onLine(line);
+        } else {
+            LOG.error(line);
+            kind = InstrumentsOutputListener.Kind.ERROR;
+            demultiplexer.onLine(ERROR_PREFIX + line);
+        }
+        for (InstrumentsOutputListener listener : listeners) {
+            try {
+                listener.onOutput(kind, line);
+            } catch (RuntimeException ex) {
+                LOG.warn("Instruments output listener {} failed", listener, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+/**
+ * Receives output lines of instruments process, on the output thread of Instruments. Listeners are expected to return
+ * quickly.
+ *
+ * @author linsong wang
+ */
+@FunctionalInterface
+public interface InstrumentsOutputListener {
+
+    enum Kind {
+        /**
+         * line from stdout
+         */
+        OUTPUT,
+        /**
+         * line from stderr, known to be harmless
+         */
+        WARNING,
+        /**
+         * line from stderr
+         */
+        ERROR
+    }
+
+    void onOutput(Kind kind, String line);
+}
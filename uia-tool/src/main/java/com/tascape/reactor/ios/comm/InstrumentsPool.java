@@ -0,0 +1,343 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import com.tascape.reactor.SystemConfiguration;
+import com.tascape.reactor.ios.model.UIAException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one Instruments host per device, with its communication servers, across app launches. A released session is
+ * either kept warm, and reset on next acquire, or torn down and started again in the background, so that the next
+ * acquire of the same app does not wait for a cold start of instruments.
+ *
+ * @author linsong wang
+ */
+public final class InstrumentsPool {
+    private static final Logger LOG = LoggerFactory.getLogger(InstrumentsPool.class);
+
+    public static final String SYSPROP_WARM_SESSION = "reactor.comm.ios.WARM_SESSION";
+
+    /**
+     * Keeps a released session running, with app state as is, instead of starting app again. Off by default, since
+     * tests then see app state left by previous tests, unless they reset it.
+     */
+    public static final boolean WARM_SESSION
+        = SystemConfiguration.getInstance().getBooleanProperty(SYSPROP_WARM_SESSION, false);
+
+    private static InstrumentsPool instance;
+
+    private final ExecutorService spawner = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "instruments-spawner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    /**
+     * An acquired Instruments host.
+     */
+    public static final class Session {
+        private final Instruments instruments;
+
+        private final boolean warm;
+
+        private Session(Instruments instruments, boolean warm) {
+            this.instruments = instruments;
+            this.warm = warm;
+        }
+
+        public Instruments getInstruments() {
+            return instruments;
+        }
+
+        /**
+         * @return true if instruments was already running at acquire, either kept warm or started in background
+         */
+        public boolean isWarm() {
+            return warm;
+        }
+    }
+
+    private static class Host {
+        private final Instruments instruments;
+
+        private boolean leased = false;
+
+        /**
+         * Completes with true when session is kept warm, with false when session was started again in background,
+         * null if session is not running.
+         */
+        private CompletableFuture<Boolean> ready;
+
+        Host(Instruments instruments) {
+            this.instruments = instruments;
+        }
+    }
+
+    /**
+     * Gets the shared instance.
+     *
+     * @return shared instance
+     */
+    public static synchronized InstrumentsPool getInstance() {
+        if (instance == null) {
+            instance = new InstrumentsPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Acquires the Instruments host of a device, running the app. A warm or pre-started session of the same app and
+     * pre-target JavaScript is taken as is, a kept warm session is reset first. Otherwise, instruments is started.
+     *
+     * @param uuid                device uuid
+     * @param appName             app name
+     * @param preTargetJavaScript JavaScript to run before the fetch loop on device, such as alert handler
+     * @param resetJavaScript     JavaScript to bring a kept warm app back to its start state, or empty
+     *
+     * @return acquired session, to be released
+     *
+     * @throws Exception if instruments cannot start
+     */
+    public Session acquire(String uuid, String appName, String preTargetJavaScript, String resetJavaScript)
+        throws Exception {
+        Host host;
+        Host dropped = null;
+        CompletableFuture<Boolean> ready;
+        synchronized (this) {
+            host = hosts.get(uuid);
+            if (host != null && host.leased) {
+                throw new UIAException("Instruments of device " + uuid + " is in use");
+            }
+            if (host != null && !host.instruments.getAppName().equals(appName)) {
+                LOG.debug("Drop instruments session of {} on {}", host.instruments.getAppName(), uuid);
+                dropped = host;
+                host = null;
+            }
+            if (host == null) {
+                host = new Host(new Instruments(uuid, appName));
+                hosts.put(uuid, host);
+            }
+            host.leased = true;
+            ready = host.ready;
+            host.ready = null;
+        }
+
+        Instruments ins = host.instruments;
+        try {
+            if (dropped != null) {
+                // the new host is leased, nobody starts it before the old instruments process is gone
+                shutdown(dropped);
+            }
+            if (ready != null) {
+                boolean kept = await(uuid, ready);
+                if (ins.isConnected() && ins.isAlive()
+                    && StringUtils.equals(ins.getPreTargetJavaScript(), preTargetJavaScript)) {
+                    if (kept) {
+                        ins.resetSession(resetJavaScript);
+                    }
+                    LOG.debug("Reuse {} instruments session of {} on {}", kept ? "warm" : "pre-started", appName, uuid);
+                    return new Session(ins, true);
+                }
+            }
+            ins.disconnect();
+            ins.setPreTargetJavaScript(preTargetJavaScript);
+            ins.connect();
+            return new Session(ins, false);
+        } catch (Exception | Error ex) {
+            synchronized (this) {
+                host.leased = false;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Starts app again in the acquired Instruments host of a device, without handing it back to the pool. The running
+     * session is reused as is if WARM_SESSION is on, and pre-target JavaScript is the same, after reset. Otherwise,
+     * instruments is started again in place.
+     *
+     * @param instruments         acquired instruments
+     * @param preTargetJavaScript JavaScript to run before the fetch loop on device, such as alert handler
+     * @param resetJavaScript     JavaScript to bring a kept warm app back to its start state, or empty
+     *
+     * @return acquired session, to be released
+     *
+     * @throws Exception if instruments cannot start
+     */
+    public Session restart(Instruments instruments, String preTargetJavaScript, String resetJavaScript)
+        throws Exception {
+        synchronized (this) {
+            Host host = getHost(instruments);
+            if (host == null || !host.leased) {
+                throw new UIAException("Instruments of device " + instruments.getUuid() + " is not acquired");
+            }
+        }
+        if (WARM_SESSION && instruments.isConnected() && instruments.isAlive()
+            && StringUtils.equals(instruments.getPreTargetJavaScript(), preTargetJavaScript)) {
+            instruments.resetSession(resetJavaScript);
+            LOG.debug("Reuse warm instruments session of {} on {}", instruments.getAppName(), instruments.getUuid());
+            return new Session(instruments, true);
+        }
+        instruments.disconnect();
+        instruments.setPreTargetJavaScript(preTargetJavaScript);
+        instruments.connect();
+        return new Session(instruments, false);
+    }
+
+    /**
+     * Releases the Instruments host of a device. The session is kept running if WARM_SESSION is on, otherwise it is
+     * stopped, and started again in background if more work is coming for the device. Pre-start is meant for a
+     * host handed back to sit idle, a restart of the same app by its holder goes through
+     * {@link #restart(Instruments, String, String)}.
+     *
+     * @param instruments acquired instruments
+     * @param prestart    true to start instruments again in background for the next acquire
+     */
+    public synchronized void release(Instruments instruments, boolean prestart) {
+        Host host = getHost(instruments);
+        if (host == null || !host.leased) {
+            return;
+        }
+        host.leased = false;
+        if (WARM_SESSION && instruments.isConnected() && instruments.isAlive()) {
+            host.ready = CompletableFuture.completedFuture(true);
+            return;
+        }
+        if (!prestart) {
+            instruments.disconnect();
+            return;
+        }
+        host.ready = CompletableFuture.supplyAsync(() -> {
+            instruments.disconnect();
+            try {
+                instruments.connect();
+            } catch (Exception ex) {
+                instruments.disconnect();
+                throw new CompletionException(ex);
+            }
+            return false;
+        }, spawner);
+    }
+
+    /**
+     * Checks if an Instruments host is acquired, and not released since.
+     *
+     * @param instruments instruments
+     *
+     * @return true if acquired
+     */
+    public synchronized boolean isAcquired(Instruments instruments) {
+        Host host = getHost(instruments);
+        return host != null && host.leased;
+    }
+
+    /**
+     * Checks if app is already running in a released session, so that it does not need to be killed before start.
+     *
+     * @param uuid    device uuid
+     * @param appName app name
+     *
+     * @return true if a warm or pre-started session of app is available
+     */
+    public synchronized boolean isWarm(String uuid, String appName) {
+        Host host = hosts.get(uuid);
+        return host != null && !host.leased && host.ready != null
+            && host.instruments.getAppName().equals(appName)
+            && !host.ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Stops the Instruments host of a device, without starting it again, and keeps its communication servers.
+     *
+     * @param uuid device uuid
+     */
+    public void disconnect(String uuid) {
+        CompletableFuture<Boolean> ready;
+        Host host;
+        synchronized (this) {
+            host = hosts.get(uuid);
+            if (host == null) {
+                return;
+            }
+            host.leased = false;
+            ready = host.ready;
+            host.ready = null;
+        }
+        if (ready != null) {
+            await(uuid, ready);
+        }
+        host.instruments.disconnect();
+    }
+
+    /**
+     * Stops the Instruments host of a device, and its communication servers.
+     *
+     * @param uuid device uuid
+     */
+    public void shutdown(String uuid) {
+        Host host;
+        synchronized (this) {
+            host = hosts.remove(uuid);
+        }
+        if (host != null) {
+            shutdown(host);
+        }
+    }
+
+    /**
+     * Stops a host removed from the pool, after its pre-start, if any, is done, so that its instruments process is
+     * gone on return.
+     */
+    private void shutdown(Host host) {
+        CompletableFuture<Boolean> ready;
+        synchronized (this) {
+            ready = host.ready;
+            host.ready = null;
+        }
+        if (ready != null) {
+            await(host.instruments.getUuid(), ready);
+        }
+        host.instruments.shutdown();
+    }
+
+    private Host getHost(Instruments instruments) {
+        return hosts.values().stream().filter(h -> h.instruments == instruments).findFirst().orElse(null);
+    }
+
+    private static boolean await(String uuid, CompletableFuture<Boolean> ready) {
+        try {
+            return ready.get();
+        } catch (ExecutionException ex) {
+            LOG.warn("Cannot pre-start instruments on {} - {}", uuid, ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UIAException("Interrupted waiting for instruments on " + uuid, ex);
+        }
+        return false;
+    }
+}
@@ -21,12 +21,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
-import net.sf.lipermi.handler.CallHandler;
-import net.sf.lipermi.net.Client;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Nail run by the ng client on each script fetch of device, with arguments session id, and an optional chunk of
+ * structured results. UIAutomation can reach the host only by running a task, so the ng client process is forked per
+ * fetch, but the nail itself runs in the NGServer JVM, and calls the session registered in JavaScriptSessions
+ * directly. At most Instruments.MAX_FETCHES fetches are served at the same time.
  *
  * @author linsong wang
  */
@@ -60,12 +62,27 @@ public class JavaScriptNail {
     }
 
     public static void nailMain(NGContext context) throws Exception {
-        int port = Integer.parseInt(context.getArgs()[0]);
-        CallHandler callHandler = new CallHandler();
-        Client client = new Client("localhost", port, callHandler);
-        JavaScriptServer jss = JavaScriptServer.class.cast(client.getGlobal(JavaScriptServer.class));
-        String js = jss.retrieveJavaScript();
-        System.out.println(js);
-        client.close();
+        String[] args = context.getArgs();
+        int session = Integer.parseInt(args[0]);
+        // the second argument, if any, is a chunk of structured results, prefixed with '#' so it is never empty
+        String results = args.length > 1 ? args[1].substring(1) : null;
+        JavaScriptServer jss = JavaScriptSessions.get(session);
+        if (jss == null) {
+            LOG.warn("Session {} is not registered, refuse fetch", session);
+            context.exit(1);
+            return;
+        }
+        if (!NailGunHost.enterFetch()) {
+            // non-zero exit code, so that device keeps its results, and sends them again on next fetch
+            LOG.warn("More than {} fetches at the same time, refuse fetch of session {}", Instruments.MAX_FETCHES,
+                session);
+            context.exit(1);
+            return;
+        }
+        try {
+            System.out.println(results == null ? jss.retrieveJavaScript() : jss.retrieveJavaScript(results));
+        } finally {
+            NailGunHost.exitFetch();
+        }
     }
 }
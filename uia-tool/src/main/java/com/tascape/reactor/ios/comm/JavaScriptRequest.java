@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One JavaScript snippet queued for the device, together with the response lines logged between its start and stop
+ * markers.
+ *
+ * @author linsong wang
+ */
+class JavaScriptRequest {
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final String javaScript;
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final CompletableFuture<List<String>> response = new CompletableFuture<>();
+
+    private final boolean structured;
+
+    private final CommandCategory category;
+
+    private final long createdNanos = System.nanoTime();
+
+    private volatile boolean started = false;
+
+    private volatile boolean expired = false;
+
+    JavaScriptRequest(String javaScript) {
+        this(javaScript, false);
+    }
+
+    /**
+     * @param javaScript JavaScript to run
+     * @param structured true if the JavaScript is a function body, whose return value is sent back as JSON
+     */
+    JavaScriptRequest(String javaScript, boolean structured) {
+        this.javaScript = javaScript;
+        this.structured = structured;
+        this.category = CommandCategory.of(javaScript);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getJavaScript() {
+        return javaScript;
+    }
+
+    String getStartMarker() {
+        return id + " start";
+    }
+
+    String getStopMarker() {
+        return id + " stop";
+    }
+
+    /**
+     * Wraps the snippet with its start/stop markers, so that one fetch by the device carries the whole request. The
+     * snippet runs in its own try block, a failure is logged as error and does not break other pipelined requests.
+     * A structured request is wrapped into a function instead, and its return value, or error, is queued on device as
+     * a result frame, see {@link ResultFrameReader}.
+     *
+     * @return JavaScript to be evaluated on device
+     */
+    String toPayload() {
+        if (structured) {
+            return new StringBuilder()
+                .append("try {\n")
+                .append("  __result('").append(id).append("', null, (function() {\n")
+                .append(javaScript).append("\n")
+                .append("  })());\n")
+                .append("} catch(err) {\n")
+                .append("  __result('").append(id).append("', err.message, null);\n")
+                .append("}\n")
+                .toString();
+        }
+        return new StringBuilder()
+            .append("UIALogger.logMessage('").append(getStartMarker()).append("');\n")
+            .append("try {\n")
+            .append(javaScript).append("\n")
+            .append("} catch(err) {\n")
+            .append("  UIALogger.logError(err.message);\n")
+            .append("}\n")
+            .append("UIALogger.logMessage('").append(getStopMarker()).append("');\n")
+            .toString();
+    }
+
+    CompletableFuture<List<String>> getResponse() {
+        return response;
+    }
+
+    boolean isStructured() {
+        return structured;
+    }
+
+    CommandCategory getCategory() {
+        return category;
+    }
+
+    long getElapsedMillis() {
+        return (System.nanoTime() - createdNanos) / 1000000;
+    }
+
+    boolean isExpired() {
+        return expired;
+    }
+
+    void expire() {
+        this.expired = true;
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    void start() {
+        this.started = true;
+    }
+
+    /**
+     * Adds a response line, up to ResponseDemultiplexer.MAX_RESPONSE_LINES.
+     *
+     * @param line response line
+     *
+     * @return false if the buffer of response lines is full
+     */
+    synchronized boolean addLine(String line) {
+        if (lines.size() >= ResponseDemultiplexer.MAX_RESPONSE_LINES) {
+            return false;
+        }
+        lines.add(line);
+        return true;
+    }
+
+    synchronized List<String> getLines() {
+        return new ArrayList<>(lines);
+    }
+}
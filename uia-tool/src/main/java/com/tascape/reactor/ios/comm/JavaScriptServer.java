@@ -22,4 +22,15 @@ package com.tascape.reactor.ios.comm;
 public interface JavaScriptServer {
 
     String retrieveJavaScript() throws InterruptedException;
+
+    /**
+     * Delivers the next chunk of structured results from device, and retrieves JavaScript to run.
+     *
+     * @param results chunk of result frames, may be empty
+     *
+     * @return JavaScript to be evaluated on device
+     *
+     * @throws InterruptedException in case of interruption
+     */
+    String retrieveJavaScript(String results) throws InterruptedException;
 }
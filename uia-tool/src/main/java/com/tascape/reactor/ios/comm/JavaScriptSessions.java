@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Script fetch sessions of all Instruments in this JVM. Each Instruments registers as a session, and the fetch loop on
+ * device passes its session id to JavaScriptNail, which runs in the NGServer of this JVM, and calls the session
+ * directly.
+ *
+ * @author linsong wang
+ */
+final class JavaScriptSessions {
+
+    private static final Map<Integer, JavaScriptServer> SESSIONS = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger SESSION_IDS = new AtomicInteger();
+
+    private JavaScriptSessions() {
+    }
+
+    static int register(JavaScriptServer jss) {
+        int session = SESSION_IDS.incrementAndGet();
+        SESSIONS.put(session, jss);
+        return session;
+    }
+
+    static void unregister(int session) {
+        SESSIONS.remove(session);
+    }
+
+    /**
+     * Finds a registered session.
+     *
+     * @param session session id
+     *
+     * @return server of session, or null if not registered
+     */
+    static JavaScriptServer get(int session) {
+        return SESSIONS.get(session);
+    }
+}
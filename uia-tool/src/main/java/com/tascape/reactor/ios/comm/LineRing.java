@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue of lines, each tagged with a sequence number, for exactly one producer thread and one
+ * consumer thread.
+ *
+ * @author linsong wang
+ */
+final class LineRing {
+    private final String[] lines;
+
+    private final long[] sequences;
+
+    private final int mask;
+
+    /**
+     * Next line to take, written by consumer only.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Next line to put, written by producer only.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Head as last seen by producer, so that producer reads head only when ring looks full.
+     */
+    private long headSeen = 0;
+
+    /**
+     * @param capacity number of lines, a power of two
+     */
+    LineRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity is not a power of two " + capacity);
+        }
+        lines = new String[capacity];
+        sequences = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Puts a line, on producer thread.
+     *
+     * @param line     line
+     * @param sequence sequence number of line
+     *
+     * @return false if ring is full
+     */
+    boolean offer(String line, long sequence) {
+        long t = tail.get();
+        if (t - headSeen >= lines.length) {
+            headSeen = head.get();
+            if (t - headSeen >= lines.length) {
+                return false;
+            }
+        }
+        lines[(int) t & mask] = line;
+        sequences[(int) t & mask] = sequence;
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Gets sequence number of next line, on consumer thread.
+     *
+     * @return sequence number, or Long.MAX_VALUE if ring is empty
+     */
+    long peekSequence() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return Long.MAX_VALUE;
+        }
+        return sequences[(int) h & mask];
+    }
+
+    /**
+     * Takes a line, on consumer thread.
+     *
+     * @return line, or null if ring is empty
+     */
+    String poll() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        int i = (int) h & mask;
+        String line = lines[i];
+        lines[i] = null;
+        head.lazySet(h + 1);
+        return line;
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
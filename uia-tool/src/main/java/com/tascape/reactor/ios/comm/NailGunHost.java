@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import com.martiansoftware.nailgun.NGServer;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One nailgun server on loopback for all Instruments in this JVM, started by the first user, and shut down when the
+ * last user releases it. Fetches of different devices are told apart by the session of JavaScriptSessions in nail
+ * arguments.
+ * <p>
+ * NGServer binds its socket in its own thread, and has no start callback. A free port is picked here, and the server
+ * is ready once it answers a nailgun request on that port. If the port is taken in between, the server thread exits,
+ * which releases a latch, and the server is started again on another port. A server that stops later is evicted, so
+ * that the next user starts a new one. NGServer also keeps its own session pool, which is not bounded, so nails are
+ * bounded here, see Instruments.MAX_FETCHES.
+ *
+ * @author linsong wang
+ */
+final class NailGunHost {
+    private static final Logger LOG = LoggerFactory.getLogger(NailGunHost.class);
+
+    private static final long START_TIMEOUT_MILLIS = 10000;
+
+    private static final int START_TRIES = 3;
+
+    private static final int PROBE_TIMEOUT_MILLIS = 1000;
+
+    private static final long PERMIT_TIMEOUT_MILLIS = 1000;
+
+    private static final Semaphore FETCHES = new Semaphore(Instruments.MAX_FETCHES);
+
+    private static NailGunHost instance;
+
+    private final int port;
+
+    private final NGServer server;
+
+    private final CountDownLatch exited = new CountDownLatch(1);
+
+    private volatile boolean stopped = false;
+
+    private int users = 0;
+
+    /**
+     * Gets the shared nailgun server, starting it if needed. Each call is to be paired with a release.
+     *
+     * @return shared server
+     *
+     * @throws IOException if server cannot listen
+     */
+    static synchronized NailGunHost acquire() throws IOException {
+        if (instance == null) {
+            instance = start();
+        }
+        instance.users++;
+        return instance;
+    }
+
+    /**
+     * Releases the shared nailgun server, which shuts down after its last user is gone.
+     *
+     * @param host server from acquire
+     */
+    static synchronized void release(NailGunHost host) {
+        if (--host.users == 0 && instance == host) {
+            LOG.debug("Stop nailgun server on port {}", host.port);
+            host.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Takes a permit to serve a fetch, waiting a while if MAX_FETCHES fetches are being served.
+     *
+     * @return false if no permit is available in time
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static boolean enterFetch() throws InterruptedException {
+        return FETCHES.tryAcquire(PERMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the permit of a fetch taken with enterFetch().
+     */
+    static void exitFetch() {
+        FETCHES.release();
+    }
+
+    private static NailGunHost start() throws IOException {
+        IOException error = null;
+        for (int i = 0; i < START_TRIES; i++) {
+            NailGunHost host = new NailGunHost();
+            try {
+                host.awaitListening();
+                LOG.debug("nailgun server on port {}", host.port);
+                return host;
+            } catch (IOException ex) {
+                LOG.warn("Cannot start nailgun server on port {} - {}", host.port, ex.getMessage());
+                host.stop();
+                error = ex;
+            }
+        }
+        throw error;
+    }
+
+    private static synchronized void evict(NailGunHost host) {
+        if (instance == host) {
+            instance = null;
+        }
+    }
+
+    private NailGunHost() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        server = new NGServer(InetAddress.getLoopbackAddress(), port);
+        new Thread(() -> {
+            try {
+                server.run();
+            } finally {
+                exited.countDown();
+                if (!stopped) {
+                    LOG.error("nailgun server on port {} stopped", port);
+                    evict(this);
+                }
+            }
+        }, "nailgun").start();
+    }
+
+    /**
+     * Waits for the server to answer a request, backing off while connection is refused.
+     *
+     * @throws IOException if server thread exits, answers something else, or does not listen in time
+     */
+    private void awaitListening() throws IOException {
+        long end = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        long backoff = 1;
+        while (true) {
+            try {
+                probe();
+                return;
+            } catch (ConnectException ex) {
+                try {
+                    if (exited.await(backoff, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("server exited, port " + port + " may be in use");
+                    }
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted", iex);
+                }
+                if (System.currentTimeMillis() > end) {
+                    throw new IOException("server does not listen in " + START_TIMEOUT_MILLIS + " ms");
+                }
+                backoff = Math.min(backoff * 2, 100);
+            }
+        }
+    }
+
+    /**
+     * Runs the ng-version nail, and reads chunks up to the exit chunk. Any exit code proves nailgun is serving.
+     */
+    private void probe() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(PROBE_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            writeChunk(out, 'D', "/");
+            writeChunk(out, 'C', "ng-version");
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (true) {
+                byte[] payload = new byte[in.readInt()];
+                byte type = in.readByte();
+                in.readFully(payload);
+                if (type == 'X') {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, char type, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.writeByte(type);
+        out.write(bytes);
+    }
+
+    private void stop() {
+        stopped = true;
+        server.shutdown(false);
+    }
+
+    int getPort() {
+        return port;
+    }
+}
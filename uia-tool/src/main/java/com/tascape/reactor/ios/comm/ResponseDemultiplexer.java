@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import com.tascape.reactor.ios.model.UIAException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes instruments output lines to pending requests by request id. The device evaluates pipelined requests one
+ * after another, so all lines between the start and stop markers of a request belong to it, and each line is given
+ * to the active request as it comes in. Lines of a request that timed out, or overflowed its buffer, are dropped.
+ * Structured requests are completed by their result frames instead. Errors are signalled separately from lines, see
+ * {@link Signal}.
+ *
+ * @author linsong wang
+ */
+class ResponseDemultiplexer {
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseDemultiplexer.class);
+
+    private static final String LOG_MESSAGE = "Default: ";
+
+    /**
+     * Max number of response lines of one request.
+     */
+    static final int MAX_RESPONSE_LINES = 1 << 17;
+
+    /**
+     * Events in instruments output, other than response lines.
+     */
+    enum Signal {
+        /**
+         * instruments failed to start, fails all pending requests, and the next submit
+         */
+        START_ERROR,
+        /**
+         * app died, fails all pending requests
+         */
+        APP_DEAD,
+        /**
+         * error logged by device, fails the active request, and ends it
+         */
+        SCRIPT_ERROR,
+        /**
+         * instruments process exited, and all its output is taken, fails all pending requests
+         */
+        PROCESS_EXIT
+    }
+
+    private final Map<String, JavaScriptRequest> pending = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean poisoned = new AtomicBoolean(false);
+
+    private JavaScriptRequest active;
+
+    void register(JavaScriptRequest request) {
+        pending.put(request.getId(), request);
+    }
+
+    synchronized void unregister(JavaScriptRequest request) {
+        pending.remove(request.getId());
+        if (active == request) {
+            active = null;
+        }
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    synchronized void onLine(String line) {
+        String message = getMessage(line);
+        if (message != null) {
+            JavaScriptRequest request = pending.get(getRequestId(message));
+            if (request != null && message.equals(request.getStartMarker())) {
+                LOG.trace(line);
+                request.start();
+                active = request;
+                return;
+            }
+            if (request != null && message.equals(request.getStopMarker())) {
+                LOG.trace(line);
+                pending.remove(request.getId());
+                request.getResponse().complete(request.getLines());
+                if (active == request) {
+                    active = null;
+                }
+                return;
+            }
+        }
+        if (active == null) {
+            LOG.trace("no active request, skip {}", line);
+            return;
+        }
+        if (!active.addLine(line)) {
+            LOG.warn("response of request {} exceeds {} lines", active.getId(), MAX_RESPONSE_LINES);
+            pending.remove(active.getId());
+            active.getResponse().completeExceptionally(
+                new UIAException("response exceeds " + MAX_RESPONSE_LINES + " lines"));
+            active = null;
+        }
+    }
+
+    /**
+     * Takes an error event from instruments output, together with its line.
+     *
+     * @param signal type of event
+     * @param line   output line
+     */
+    void onSignal(Signal signal, String line) {
+        switch (signal) {
+            case START_ERROR:
+                poison();
+                break;
+            case APP_DEAD:
+                onLine(line);
+                failAll(new UIAException("instruments error " + line));
+                break;
+            case PROCESS_EXIT:
+                failAll(new UIAException(line));
+                break;
+            case SCRIPT_ERROR:
+            default:
+                synchronized (this) {
+                    JavaScriptRequest request = active;
+                    onLine(line);
+                    if (request != null) {
+                        // lines up to its stop marker are dropped, instead of going to a completed request
+                        unregister(request);
+                        request.getResponse().completeExceptionally(new UIAException("instruments error " + line));
+                    }
+                }
+        }
+    }
+
+    /**
+     * Completes a structured request with its result frame, which is {@code <id> =<json>} for a return value, or
+     * {@code <id> !<message>} for an error.
+     *
+     * @param frame body of result frame
+     */
+    void onResult(String frame) {
+        int space = frame.indexOf(' ');
+        JavaScriptRequest request = space < 0 ? null : pending.remove(frame.substring(0, space));
+        if (request == null || frame.length() < space + 2) {
+            LOG.warn("no pending request of result {}", StringUtils.abbreviate(frame, 200));
+            return;
+        }
+        String body = frame.substring(space + 2);
+        if (frame.charAt(space + 1) == '!') {
+            request.getResponse().completeExceptionally(new UIAException("javascript error " + body));
+        } else {
+            request.getResponse().complete(Collections.singletonList(body));
+        }
+    }
+
+    /**
+     * Marks instruments as failed to start, and fails all pending requests.
+     */
+    private void poison() {
+        poisoned.set(true);
+        failAll(new UIAException("Instruments start error"));
+    }
+
+    /**
+     * Checks and clears the poison flag.
+     *
+     * @return true if instruments failed to start since last check
+     */
+    boolean clearPoison() {
+        return poisoned.getAndSet(false);
+    }
+
+    synchronized void reset() {
+        poisoned.set(false);
+        failAll(new UIAException("instruments disconnected"));
+    }
+
+    private synchronized void failAll(UIAException ex) {
+        List<JavaScriptRequest> requests = new ArrayList<>(pending.values());
+        pending.clear();
+        active = null;
+        requests.forEach(r -> r.getResponse().completeExceptionally(ex));
+    }
+
+    private static String getMessage(String line) {
+        int i = line.indexOf(LOG_MESSAGE);
+        if (i < 0) {
+            return null;
+        }
+        return line.substring(i + LOG_MESSAGE.length()).trim();
+    }
+
+    private static String getRequestId(String message) {
+        int i = message.lastIndexOf(' ');
+        return i < 0 ? message : message.substring(0, i);
+    }
+}
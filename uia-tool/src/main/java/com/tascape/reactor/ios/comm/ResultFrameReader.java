@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reassembles structured results sent by device along with each fetch. Results are framed as
+ * {@code <length>:<body>}, and the stream of frames is split into numbered chunks to fit into the arguments of a host
+ * task, so a frame may span several fetches.
+ *
+ * @author linsong wang
+ */
+class ResultFrameReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultFrameReader.class);
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private long sequence = 0;
+
+    /**
+     * Checks the sequence number of a chunk. Device resends a chunk if its fetch failed, which may still have reached
+     * host, so a chunk is accepted only once.
+     *
+     * @param chunk sequence number and chunk of result frames, as {@code <seq>:<chunk>}
+     *
+     * @return true if the chunk is not empty, and has the next sequence number
+     */
+    synchronized boolean accept(String chunk) {
+        int colon = chunk.indexOf(':');
+        if (colon < 0 || colon == chunk.length() - 1) {
+            return false;
+        }
+        long seq;
+        try {
+            seq = Long.parseLong(chunk.substring(0, colon));
+        } catch (NumberFormatException ex) {
+            LOG.error("Bad result chunk {}", StringUtils.abbreviate(chunk, 200));
+            return false;
+        }
+        if (seq != sequence + 1) {
+            LOG.debug("skip result chunk {}, expect {}", seq, sequence + 1);
+            return false;
+        }
+        sequence = seq;
+        return true;
+    }
+
+    /**
+     * Appends a chunk, and takes all complete frames.
+     *
+     * @param chunk next chunk of frames
+     *
+     * @return bodies of complete frames, in order
+     */
+    synchronized List<String> append(String chunk) {
+        buffer.append(chunk);
+        List<String> frames = new ArrayList<>();
+        int from = 0;
+        while (from < buffer.length()) {
+            int colon = buffer.indexOf(":", from);
+            if (colon < 0) {
+                break;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(buffer.substring(from, colon));
+            } catch (NumberFormatException ex) {
+                LOG.error("Bad result frame, drop {} chars", buffer.length() - from);
+                from = buffer.length();
+                break;
+            }
+            int end = colon + 1 + length;
+            if (end > buffer.length()) {
+                break;
+            }
+            frames.add(buffer.substring(colon + 1, end));
+            from = end;
+        }
+        buffer.delete(0, from);
+        return frames;
+    }
+
+    /**
+     * @return true if the last frame is not complete yet
+     */
+    synchronized boolean hasPartial() {
+        return buffer.length() > 0;
+    }
+
+    synchronized void reset() {
+        buffer.setLength(0);
+        sequence = 0;
+    }
+}
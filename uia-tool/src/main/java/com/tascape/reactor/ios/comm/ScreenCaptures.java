@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.comm;
+
+import com.tascape.reactor.Utils;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locates screen captures in the UIARESULTSPATH directory of Instruments. Instruments writes captures into a run
+ * directory under UIARESULTSPATH, so once a capture is found there, the next one is looked up by its exact path, and
+ * the results directory is not scanned again. Captures are moved out, and stray ones are pruned by count.
+ *
+ * @author linsong wang
+ */
+class ScreenCaptures {
+    private static final Logger LOG = LoggerFactory.getLogger(ScreenCaptures.class);
+
+    private static final String PNG = ".png";
+
+    private static final long POLL_MILLIS = 50;
+
+    private final Path resultsPath;
+
+    private final int retention;
+
+    private volatile Path runPath;
+
+    /**
+     * @param resultsPath UIARESULTSPATH of Instruments
+     * @param retention   max number of captures left in run directory
+     */
+    ScreenCaptures(Path resultsPath, int retention) {
+        this.resultsPath = resultsPath;
+        this.retention = retention;
+    }
+
+    /**
+     * Forgets the run directory, as Instruments starts a new one on each launch.
+     */
+    void reset() {
+        runPath = null;
+    }
+
+    /**
+     * Moves a capture to target file, and prunes stray captures.
+     *
+     * @param name          image name used in captureScreenWithName
+     * @param target        target file
+     * @param timeoutMillis max time to wait for the capture to be written
+     *
+     * @throws IOException          if capture is not found or cannot be moved
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void moveCapture(String name, Path target, long timeoutMillis) throws IOException, InterruptedException {
+        Path capture = find(name, timeoutMillis);
+        Files.move(capture, target, StandardCopyOption.REPLACE_EXISTING);
+        prune();
+    }
+
+    /**
+     * Looks up the capture in last known run directory first, then in results directory and its direct sub
+     * directories. A full walk of results directory happens only if the capture is not found in time.
+     */
+    Path find(String name, long timeoutMillis) throws IOException, InterruptedException {
+        String fileName = name + PNG;
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            Path run = runPath;
+            if (run != null && Files.isRegularFile(run.resolve(fileName))) {
+                return run.resolve(fileName);
+            }
+            Path capture = findShallow(fileName);
+            if (capture != null) {
+                return capture;
+            }
+            if (System.currentTimeMillis() > end) {
+                break;
+            }
+            Utils.sleep(POLL_MILLIS, "wait for capture " + name);
+        }
+        try (Stream<Path> paths = Files.walk(resultsPath)) {
+            Path capture = paths.filter(p -> p.getFileName().toString().contains(name))
+                .filter(p -> p.toString().endsWith(PNG)).findFirst()
+                .orElseThrow(() -> new FileNotFoundException("Cannot find capture " + name + " in " + resultsPath));
+            runPath = capture.getParent();
+            return capture;
+        }
+    }
+
+    private Path findShallow(String fileName) throws IOException {
+        if (Files.isRegularFile(resultsPath.resolve(fileName))) {
+            runPath = resultsPath;
+            return resultsPath.resolve(fileName);
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(resultsPath, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                if (Files.isRegularFile(dir.resolve(fileName))) {
+                    LOG.debug("Instruments run directory {}", dir);
+                    runPath = dir;
+                    return dir.resolve(fileName);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the oldest captures in run directory, beyond retention.
+     */
+    void prune() throws IOException {
+        Path run = runPath;
+        if (run == null) {
+            return;
+        }
+        List<Path> captures = new ArrayList<>();
+        try (DirectoryStream<Path> pngs = Files.newDirectoryStream(run, "*" + PNG)) {
+            pngs.forEach(captures::add);
+        }
+        if (captures.size() <= retention) {
+            return;
+        }
+        List<Path> oldest = captures.stream()
+            .sorted(Comparator.comparingLong(ScreenCaptures::lastModified))
+            .limit(captures.size() - retention)
+            .collect(Collectors.toList());
+        for (Path p : oldest) {
+            LOG.trace("prune {}", p);
+            Files.deleteIfExists(p);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+}
@@ -97,8 +97,15 @@ public abstract class App extends EntityDriver {
         return 2;
     }
 
+    /**
+     * Launches app on device. App is killed first, unless it is running in a warm Instruments session of the device.
+     *
+     * @throws Exception if app does not launch
+     */
     public void launch() throws Exception {
-        device.getDebugService().killApp(this.getBundleId());
+        if (!device.hasWarmSession(this.getName())) {
+            device.getDebugService().killApp(this.getBundleId());
+        }
 
         device.setAlertAutoDismiss();
         device.start(this.getName(), getLaunchTries(), getLaunchDelayMillis());
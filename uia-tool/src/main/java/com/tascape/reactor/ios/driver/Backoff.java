@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.driver;
+
+import com.tascape.reactor.Utils;
+
+/**
+ * Adaptive exponential backoff of host side polling. The delay doubles on each idle poll, up to a maximum, and is
+ * reset when the polled state changes.
+ *
+ * @author linsong wang
+ */
+class Backoff {
+
+    static final long MIN_DELAY_MILLIS = 100;
+
+    static final long MAX_DELAY_MILLIS = 3200;
+
+    private long delay = MIN_DELAY_MILLIS;
+
+    void reset() {
+        delay = MIN_DELAY_MILLIS;
+    }
+
+    /**
+     * Sleeps for current delay, but not beyond the deadline, and doubles the delay for next time.
+     *
+     * @param end     deadline in epoch milliseconds
+     * @param message message of sleep
+     *
+     * @throws InterruptedException in case of interruption
+     */
+    void sleep(long end, String message) throws InterruptedException {
+        long d = Math.min(delay, end - System.currentTimeMillis());
+        delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+        if (d > 0) {
+            Utils.sleep(d, message);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -31,6 +32,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
 import org.libimobiledevice.ios.driver.binding.model.ApplicationInfo;
 import org.libimobiledevice.ios.driver.binding.model.ProvisioningProfileInfo;
+import org.libimobiledevice.ios.driver.binding.model.ScreenSignature;
 import org.libimobiledevice.ios.driver.binding.services.AppContainerService;
 import org.libimobiledevice.ios.driver.binding.services.DebugService;
 import org.libimobiledevice.ios.driver.binding.services.DeviceCallBack;
@@ -60,12 +62,23 @@ public class LibIMobileDevice extends EntityDriver {
 
     public static final String SYSPROP_UUIDS = "reactor.driver.ios.UUIDS";
 
+    /**
+     * Max fraction of screen blocks changed between two frames of a stable screen.
+     */
+    public static final double SCREEN_STABLE_THRESHOLD = 0.01;
+
+    public static final long SCREEN_STABLE_WINDOW_MILLIS = 600;
+
+    public static final long SCREEN_STABLE_TIMEOUT_MILLIS = 30000;
+
     private static final List<String> UUIDS = new ArrayList<>();
 
     private final IOSDevice iosDevice;
 
     private SysLogListener sysLogListener;
 
+    private PrintWriter sysLogWriter;
+
     private final AppContainerService appContainerService;
 
     private final DebugService debugService;
@@ -280,18 +293,94 @@ public class LibIMobileDevice extends EntityDriver {
         }
     }
 
+    /**
+     * Starts streaming device screen through screenshot service, see ScreenStream. The stream shares the service with
+     * other screenshots of this device, such as waitForScreenStable(), which take turns with it.
+     *
+     * @param fps      frames per second
+     * @param capacity number of most recent frames kept
+     *
+     * @return running screen stream, which must be closed after use
+     */
+    public ScreenStream startScreenStream(double fps, int capacity) {
+        LOG.debug("Start screen stream at {} fps", fps);
+        return new ScreenStream(screenshotService, fps, capacity);
+    }
+
+    /**
+     * Waits for screen to stop changing, with default timeout, see
+     * {@link #waitForScreenStable(double, long, long)}.
+     *
+     * @param threshold    max fraction of screen blocks changed between frames, such as 0.01
+     * @param windowMillis how long screen needs to stay stable
+     *
+     * @return true if screen is stable, or false if timeout
+     *
+     * @throws SDKException if screenshot cannot be taken
+     */
+    public boolean waitForScreenStable(double threshold, long windowMillis) throws SDKException {
+        return waitForScreenStable(threshold, windowMillis, SCREEN_STABLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Waits for screen to stop changing. Screenshots are taken back to back, and compared by their signatures. The
+     * screen is stable when consecutive frames differ by no more than threshold for the given window.
+     *
+     * @param threshold     max fraction of screen blocks changed between frames, such as 0.01
+     * @param windowMillis  how long screen needs to stay stable
+     * @param timeoutMillis max time to wait
+     *
+     * @return true if screen is stable, or false if timeout
+     *
+     * @throws SDKException if screenshot cannot be taken
+     */
+    public boolean waitForScreenStable(double threshold, long windowMillis, long timeoutMillis) throws SDKException {
+        long start = System.currentTimeMillis();
+        long end = start + timeoutMillis;
+        ByteBuffer tiff = null;
+        ScreenSignature last = null;
+        long stableSince = start;
+        while (true) {
+            tiff = screenshotService.takeScreenshotAsTiff(tiff);
+            ScreenSignature signature = ScreenSignature.of(ScreenshotService.toPixels(tiff));
+            long now = System.currentTimeMillis();
+            if (last == null || last.diff(signature) > threshold) {
+                stableSince = now;
+            } else if (now - stableSince >= windowMillis) {
+                LOG.debug("Screen stable after {} ms", now - start);
+                return true;
+            }
+            if (now > end) {
+                LOG.debug("Screen not stable in {} ms", timeoutMillis);
+                return false;
+            }
+            last = signature;
+        }
+    }
+
     public File startSysLog() throws IOException, SDKException {
         File log = this.saveAsTempTextFile("syslog-", "");
         PrintWriter pw = new PrintWriter(new FileOutputStream(log));
         sysLogListener = (SysLogLine line) -> {
             pw.println(line.toString());
         };
+        sysLogWriter = pw;
         sysLogService.addListener(sysLogListener);
         return log;
     }
 
+    /**
+     * Stops writing syslog to file, after lines already captured are written.
+     */
     public void stopSysLog() {
         sysLogService.remove(sysLogListener);
+        if (sysLogWriter != null) {
+            sysLogWriter.close();
+            sysLogWriter = null;
+        }
+        if (sysLogService.getDroppedCount() > 0) {
+            LOG.warn("{} syslog lines dropped", sysLogService.getDroppedCount());
+        }
     }
 
     public DebugService getDebugService() {
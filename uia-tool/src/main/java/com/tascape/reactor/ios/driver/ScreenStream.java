@@ -0,0 +1,413 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.driver;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
+import org.libimobiledevice.ios.driver.binding.model.RawImage;
+import org.libimobiledevice.ios.driver.binding.services.ScreenshotService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams device screen at a fixed frame rate into a ring of reusable frame buffers. Readers pin the frames they use,
+ * and pinned frames are skipped when overwriting the oldest one. A capture is dropped when all other frames are
+ * pinned, so a slow reader never blocks the stream. Captures
+ * are also dropped when the device cannot keep up with the frame rate.
+ * <p>
+ * The ring always holds the most recent frames, which can be saved as a low overhead recording of a step, such as
+ * <pre>
+ * try (ScreenStream stream = device.startScreenStream(4, 20)) {
+ *     ... steps ...
+ * } catch (Throwable t) {
+ *     stream.save(dir);
+ * }
+ * </pre>
+ *
+ * @author linsong wang
+ */
+public class ScreenStream implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ScreenStream.class);
+
+    private final Capture capture;
+
+    private final long intervalMillis;
+
+    private final Slot[] slots;
+
+    private final AtomicLong captured = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Object monitor = new Object();
+
+    private final Thread capturer;
+
+    private volatile int head = -1;
+
+    private volatile boolean running = true;
+
+    private long sequence = 0;
+
+    /**
+     * Takes a screenshot as TIFF image into a buffer.
+     */
+    @FunctionalInterface
+    interface Capture {
+        ByteBuffer take(ByteBuffer reuse) throws SDKException;
+    }
+
+    /**
+     * Starts streaming.
+     *
+     * @param service  screenshot service of device
+     * @param fps      frames per second
+     * @param capacity number of frames kept, at least 2
+     */
+    public ScreenStream(ScreenshotService service, double fps, int capacity) {
+        this(reuse -> service.takeScreenshotAsTiff(reuse), fps, capacity);
+    }
+
+    ScreenStream(Capture capture, double fps, int capacity) {
+        if (fps <= 0 || capacity < 2) {
+            throw new IllegalArgumentException("Invalid fps " + fps + " or capacity " + capacity);
+        }
+        this.capture = capture;
+        this.intervalMillis = Math.max(1, Math.round(1000 / fps));
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        capturer = new Thread(this::run, "screen-stream");
+        capturer.setDaemon(true);
+        capturer.start();
+    }
+
+    /**
+     * Gets the most recent frame. The frame must be released after use.
+     *
+     * @return pinned frame, or null if there is no frame yet
+     */
+    public Frame latest() {
+        while (true) {
+            int h = head;
+            if (h < 0) {
+                return null;
+            }
+            Slot slot = slots[h];
+            long seq = slot.sequence;
+            if (slot.pin()) {
+                if (slot.sequence == seq) {
+                    return new Frame(slot);
+                }
+                slot.unpin();
+            }
+        }
+    }
+
+    /**
+     * Waits for a frame newer than the given one. The frame must be released after use.
+     *
+     * @param after         sequence number of last frame seen, or 0
+     * @param timeoutMillis max time to wait
+     *
+     * @return pinned frame, or null if there is no new frame in time
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Frame next(long after, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (monitor) {
+            while (true) {
+                Frame frame = latest();
+                if (frame != null && frame.getSequence() > after) {
+                    return frame;
+                }
+                if (frame != null) {
+                    frame.release();
+                }
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0 || !running) {
+                    return null;
+                }
+                monitor.wait(wait);
+            }
+        }
+    }
+
+    /**
+     * Gets all frames in the ring, oldest first. The frames must be released after use.
+     *
+     * @return pinned frames
+     */
+    public List<Frame> frames() {
+        List<Frame> frames = new ArrayList<>();
+        for (Slot slot : slots) {
+            if (slot.pin()) {
+                if (slot.sequence > 0) {
+                    frames.add(new Frame(slot));
+                } else {
+                    slot.unpin();
+                }
+            }
+        }
+        frames.sort(Comparator.comparingLong(Frame::getSequence));
+        return frames;
+    }
+
+    /**
+     * Saves all frames in the ring as TIFF images, as is from device, named frame-sequence-timestamp.tiff.
+     *
+     * @param dir target directory
+     *
+     * @return saved files, oldest first
+     *
+     * @throws IOException if a frame cannot be saved
+     */
+    public List<File> save(File dir) throws IOException {
+        List<Frame> frames = frames();
+        List<File> files = new ArrayList<>();
+        try {
+            for (Frame frame : frames) {
+                File f = new File(dir, String.format("frame-%06d-%d.tiff", frame.getSequence(), frame.getTimestamp()));
+                try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer tiff = frame.getTiff();
+                    while (tiff.hasRemaining()) {
+                        channel.write(tiff);
+                    }
+                }
+                files.add(f);
+            }
+        } finally {
+            frames.forEach(Frame::release);
+        }
+        LOG.debug("Saved {} frames into {}", files.size(), dir);
+        return files;
+    }
+
+    public long getCapturedFrames() {
+        return captured.get();
+    }
+
+    /**
+     * Gets the number of frames not captured, because the device was slower than the frame rate, or all other frame
+     * buffers were pinned by readers.
+     *
+     * @return number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        capturer.interrupt();
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        LOG.debug("Stop screen stream, {} frames captured, {} dropped", captured.get(), dropped.get());
+    }
+
+    private void run() {
+        long next = System.currentTimeMillis();
+        while (running) {
+            long now = System.currentTimeMillis();
+            try {
+                if (now < next) {
+                    Thread.sleep(next - now);
+                    now = System.currentTimeMillis();
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+            long late = (now - next) / intervalMillis;
+            dropped.addAndGet(late);
+            next += (late + 1) * intervalMillis;
+
+            int index = nextFree();
+            if (index < 0) {
+                dropped.incrementAndGet();
+                continue;
+            }
+            Slot slot = slots[index];
+            try {
+                slot.tiff = capture.take(slot.tiff);
+                slot.image = ScreenshotService.toPixels(slot.tiff);
+                slot.timestamp = now;
+                slot.sequence = ++sequence;
+            } catch (SDKException | RuntimeException ex) {
+                LOG.warn("Cannot capture screen - {}", ex.getMessage());
+                slot.sequence = 0;
+                dropped.incrementAndGet();
+                continue;
+            } finally {
+                slot.endWrite();
+            }
+            head = index;
+            captured.incrementAndGet();
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Locks the oldest frame buffer for writing, skipping the pinned ones and the most recent one.
+     *
+     * @return index of locked frame buffer, or -1 if all are pinned
+     */
+    private int nextFree() {
+        for (int i = 1; i < slots.length; i++) {
+            int index = (head + i + slots.length) % slots.length;
+            if (slots[index].beginWrite()) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One frame buffer of the ring. State is -1 while being written, or the number of readers pinning it.
+     */
+    private static final class Slot {
+        private final AtomicInteger state = new AtomicInteger();
+
+        private volatile long sequence = 0;
+
+        private long timestamp;
+
+        private ByteBuffer tiff;
+
+        private RawImage image;
+
+        boolean pin() {
+            while (true) {
+                int s = state.get();
+                if (s < 0) {
+                    return false;
+                }
+                if (state.compareAndSet(s, s + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            state.decrementAndGet();
+        }
+
+        boolean beginWrite() {
+            return state.compareAndSet(0, -1);
+        }
+
+        void endWrite() {
+            state.set(0);
+        }
+    }
+
+    /**
+     * A pinned frame. Its buffers stay valid until released.
+     */
+    public static final class Frame implements AutoCloseable {
+        private final Slot slot;
+
+        private final long sequence;
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        private Frame(Slot slot) {
+            this.slot = slot;
+            this.sequence = slot.sequence;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return slot.timestamp;
+        }
+
+        public RawImage getImage() {
+            return slot.image;
+        }
+
+        /**
+         * Gets the frame as TIFF image, as is from device.
+         *
+         * @return read-only buffer of TIFF image
+         */
+        public ByteBuffer getTiff() {
+            return slot.tiff.asReadOnlyBuffer();
+        }
+
+        /**
+         * Copies the frame into an RGB image, for display.
+         *
+         * @param reuse image to reuse if it is TYPE_INT_RGB of the same size, or null
+         *
+         * @return image of this frame
+         */
+        public BufferedImage toImage(BufferedImage reuse) {
+            RawImage image = slot.image;
+            int width = image.getWidth();
+            int height = image.getHeight();
+            BufferedImage target = reuse != null && reuse.getType() == BufferedImage.TYPE_INT_RGB
+                && reuse.getWidth() == width && reuse.getHeight() == height
+                ? reuse : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] rgb = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+            ByteBuffer pixels = image.getPixels();
+            int bpp = image.getBytesPerPixel();
+            int g = bpp < 3 ? 0 : 1;
+            int b = bpp < 3 ? 0 : 2;
+            for (int i = 0, p = 0; i < rgb.length; i++, p += bpp) {
+                rgb[i] = (pixels.get(p) & 0xFF) << 16 | (pixels.get(p + g) & 0xFF) << 8 | (pixels.get(p + b) & 0xFF);
+            }
+            return target;
+        }
+
+        /**
+         * Unpins the frame, so that its buffers can be reused. A frame is released only once.
+         */
+        public void release() {
+            if (released.compareAndSet(0, 1)) {
+                slot.unpin();
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -22,7 +22,11 @@ import org.slf4j.LoggerFactory;
 import com.tascape.reactor.SystemConfiguration;
 import com.tascape.reactor.Utils;
 import com.tascape.reactor.ios.comm.Instruments;
+import com.tascape.reactor.ios.comm.InstrumentsPool;
 import com.tascape.reactor.ios.model.DeviceOrientation;
+import com.tascape.reactor.ios.model.ElementSnapshot;
+import com.tascape.reactor.ios.model.ElementState;
+import com.tascape.reactor.ios.model.ElementTreeDiff;
 import com.tascape.reactor.ios.model.UIAAlert;
 import com.tascape.reactor.ios.model.UIAApplication;
 import com.tascape.reactor.ios.model.UIAElement;
@@ -36,11 +40,15 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
 
 /**
  *
@@ -59,14 +67,39 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
     public static final int TIMEOUT_SECOND
         = SystemConfiguration.getInstance().getIntProperty(SYSPROP_TIMEOUT_SECOND, 120);
 
-    private Instruments instruments;
+    public static final String SYSPROP_INCREMENTAL_REFRESH = "reactor.driver.ios.INCREMENTAL_REFRESH";
+
+    public static final String SYSPROP_STRUCTURED_RESPONSE = "reactor.driver.ios.STRUCTURED_RESPONSE";
+
+    private static final String JS_ELEMENT_TREE = "return elementTree(window);";
+
+    /**
+     * Max time of one wait loop on device, well below the timeout of a JavaScript request.
+     */
+    private static final long WAIT_SLICE_MILLIS = Math.min(10000, Instruments.JAVASCRIPT_TIMEOUT_SECOND * 500L);
+
+    private static final String WAIT_POLL_SECOND = "0.1";
+
+    private volatile Instruments instruments;
 
     private Dimension screenDimension;
 
-    private UIAWindow currentWindow;
+    private volatile UIAWindow currentWindow;
+
+    private volatile ElementTreeDiff lastWindowDiff;
+
+    private volatile boolean incrementalRefresh
+        = SystemConfiguration.getInstance().getBooleanProperty(SYSPROP_INCREMENTAL_REFRESH, false);
+
+    private volatile boolean structuredResponse
+        = SystemConfiguration.getInstance().getBooleanProperty(SYSPROP_STRUCTURED_RESPONSE, false);
+
+    private final Object windowLock = new Object();
 
     private String alertHandler = "";
 
+    private String sessionReset = "";
+
     public static synchronized List<UiAutomationDevice> getAllDevices() {
         if (DEVICES.isEmpty()) {
             List<String> UUIDS = LibIMobileDevice.getAllUuids();
@@ -105,7 +138,9 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
     }
 
     /**
-     * Launches app by name, and verifies the main window is on screen.
+     * Launches app by name, and verifies the main window is on screen. Instruments comes from InstrumentsPool, a warm
+     * or pre-started session of the same app is reused. A restart of the app already started on this device keeps its
+     * Instruments, see InstrumentsPool.restart.
      *
      * @param appName     app name
      * @param tries       number of tries of instruments command
@@ -114,22 +149,26 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
      * @throws Exception if app does not launch
      */
     public void start(String appName, int tries, int delayMillis) throws Exception {
-        if (instruments != null) {
-            instruments.disconnect();
+        InstrumentsPool pool = InstrumentsPool.getInstance();
+        if (instruments != null && instruments.getAppName().equals(appName) && pool.isAcquired(instruments)) {
+            pool.restart(instruments, alertHandler, sessionReset);
         } else {
-            instruments = new Instruments(getUuid(), appName);
-        }
-        if (StringUtils.isNotEmpty(alertHandler)) {
-            instruments.setPreTargetJavaScript(alertHandler);
+            if (instruments != null) {
+                pool.release(instruments, false);
+            }
+            instruments = pool.acquire(getUuid(), appName, alertHandler, sessionReset).getInstruments();
         }
         for (int i = 0; i < tries; i++) {
-            instruments.connect();
-            Utils.sleep(delayMillis, "Wait for app to start");
+            if (i > 0) {
+                instruments.disconnect();
+                instruments.connect();
+            }
             long end = System.currentTimeMillis() + TIMEOUT_SECOND * 500;
             while (end > System.currentTimeMillis()) {
                 try {
                     if (this.instruments.runJavaScript("app.logElement();").stream()
                         .filter(l -> l.contains(UIAApplication.class.getSimpleName())).findAny().isPresent()) {
+                        waitForAppScreen(delayMillis);
                         return;
                     }
                 } catch (Exception ex) {
@@ -141,12 +180,70 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
         throw new UIAException("Cannot start app ");
     }
 
+    /**
+     * Waits up to delayMillis for app screen to settle, or sleeps for delayMillis if screen cannot be checked. Called
+     * only once app is on screen, since home screen or launch image before it is just as stable.
+     */
+    private void waitForAppScreen(int delayMillis) throws InterruptedException {
+        try {
+            waitForScreenStable(SCREEN_STABLE_THRESHOLD, SCREEN_STABLE_WINDOW_MILLIS, delayMillis);
+        } catch (SDKException ex) {
+            LOG.warn("Cannot check screen - {}", ex.getMessage());
+            Utils.sleep(delayMillis, "Wait for app to start");
+        }
+    }
+
     public void stop() {
+        InstrumentsPool.getInstance().shutdown(getUuid());
+    }
+
+    /**
+     * Stops Instruments, and keeps its communication servers, so that app can be started again.
+     */
+    public void disconnect() {
+        InstrumentsPool.getInstance().disconnect(getUuid());
+    }
+
+    /**
+     * Returns Instruments of this device to the pool, which keeps it warm, or stops it. See InstrumentsPool.
+     */
+    public void release() {
+        this.release(false);
+    }
+
+    /**
+     * Returns Instruments of this device to the pool, which keeps it warm, or stops it and, if asked, starts it again
+     * in background, so that next start of the same app is fast. See InstrumentsPool.
+     *
+     * @param prestart true if more work is coming for this device
+     */
+    public void release(boolean prestart) {
         if (instruments != null) {
-            instruments.shutdown();
+            InstrumentsPool.getInstance().release(instruments, prestart);
         }
     }
 
+    /**
+     * Checks if app is running in a released Instruments session of this device, ready for next start.
+     *
+     * @param appName app name
+     *
+     * @return true if next start of app reuses a running session
+     */
+    public boolean hasWarmSession(String appName) {
+        return InstrumentsPool.getInstance().isWarm(getUuid(), appName);
+    }
+
+    /**
+     * Checks if the Instruments process of this device, if started, is still running.
+     *
+     * @return false if Instruments died since app start
+     */
+    public boolean isHealthy() {
+        Instruments ins = instruments;
+        return ins == null || ins.isAlive();
+    }
+
     public void install(App app) {
         app.setDevice(this);
     }
@@ -155,10 +252,60 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
         this.alertHandler = javaScript;
     }
 
+    /**
+     * Sets JavaScript that brings app back to its start state, run when a warm Instruments session is reused, see
+     * InstrumentsPool.WARM_SESSION.
+     *
+     * @param javaScript JavaScript to run on device
+     */
+    public void setSessionReset(String javaScript) {
+        this.sessionReset = javaScript;
+    }
+
+    /**
+     * Enables or disables incremental refresh of current window. When enabled, each newly loaded element tree is
+     * merged into the current window, unchanged elements are reused, and the difference is kept as last window diff.
+     *
+     * @param enabled true to merge element tree into current window
+     */
+    public void setIncrementalRefresh(boolean enabled) {
+        this.incrementalRefresh = enabled;
+    }
+
+    /**
+     * Enables or disables structured response of element tree. When enabled, current window element tree is sent
+     * back as compact JSON through the JavaScriptServer channel, instead of logElementTree() output.
+     *
+     * @param enabled true to load element tree as JSON
+     */
+    public void setStructuredResponse(boolean enabled) {
+        this.structuredResponse = enabled;
+    }
+
+    /**
+     * Gets the difference of current window from the one before, when incremental refresh is enabled.
+     *
+     * @return last window diff, or null if there is none
+     */
+    public ElementTreeDiff getLastWindowDiff() {
+        return lastWindowDiff;
+    }
+
     public List<String> runJavaScript(String javaScript) {
         return instruments.runJavaScript(javaScript);
     }
 
+    /**
+     * Runs JavaScript without blocking the calling thread.
+     *
+     * @param javaScript JavaScript to run
+     *
+     * @return future of response lines
+     */
+    public CompletableFuture<List<String>> runJavaScriptAsync(String javaScript) {
+        return instruments.runJavaScriptAsync(javaScript);
+    }
+
     public List<String> loadElementTree() {
         return instruments.runJavaScript("window.logElementTree();");
     }
@@ -235,6 +382,38 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
         return mainWindow().findElement(type, name) != null;
     }
 
+    /**
+     * Queries states of many elements in one request. Each element path is resolved once on device, and all states
+     * are returned in one response. FindBy elements without CacheLookup are located in one load of main window.
+     *
+     * @param elements elements to query
+     * @param states   states to query, such as ElementState.VISIBLE, ElementState.VALUE
+     *
+     * @return snapshots, in the order of elements
+     *
+     * @throws UIAException in case of Instruments error
+     */
+    public List<ElementSnapshot> queryStates(List<? extends UIAElement> elements, ElementState... states) {
+        List<String> jsPaths = UIAElement.getJsPaths(elements);
+        List<String> lines = instruments.runJavaScript(ElementSnapshot.toJavaScript(jsPaths, states));
+        return ElementSnapshot.parse(elements, lines, states);
+    }
+
+    /**
+     * Queries states of many elements in one request, without blocking the calling thread.
+     *
+     * @param elements elements to query
+     * @param states   states to query
+     *
+     * @return future of snapshots, in the order of elements
+     */
+    public CompletableFuture<List<ElementSnapshot>> queryStatesAsync(List<? extends UIAElement> elements,
+        ElementState... states) {
+        List<String> jsPaths = UIAElement.getJsPaths(elements);
+        return instruments.runJavaScriptAsync(ElementSnapshot.toJavaScript(jsPaths, states))
+            .thenApplyAsync(lines -> ElementSnapshot.parse(elements, lines, states));
+    }
+
     /**
      * Waits for an element exists on current UI, based on element type.
      *
@@ -252,7 +431,8 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
     }
 
     /**
-     * Waits for an element exists on current UI, based on element type and name.
+     * Waits for an element exists on current UI, based on element type and name. The element is checked in a loop on
+     * device, and this method returns as soon as it exists.
      *
      * @param <T>        sub-class of UIAElement
      * @param javaScript the javascript that uniquely identify the element, such as "window.tabBars()['MainTabBar']",
@@ -266,18 +446,34 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
      */
     public <T extends UIAElement> boolean waitForElement(String javaScript, Class<T> type, String name)
         throws InterruptedException {
-        long end = System.currentTimeMillis() + TIMEOUT_SECOND * 1000;
-        while (System.currentTimeMillis() < end) {
-            if (doesElementExist(javaScript, type, name)) {
-                return true;
-            }
-            Utils.sleep(1000, "wait for " + type + "[" + name + "]");
-        }
-        return false;
+        String check = "e.isValid() && e.toString().indexOf(" + JSONObject.quote(type.getSimpleName()) + ") >= 0"
+            + (StringUtils.isEmpty(name) ? "" : " && e.name() != null && e.name().indexOf(" + JSONObject.quote(name)
+            + ") >= 0");
+        return this.waitOnDevice(javaScript, check, "wait for " + type.getSimpleName() + "[" + name + "]");
     }
 
     /**
-     * Waits for an element exists on current UI, based on element type and name. This method loads full element tree.
+     * Waits for an element disappear on current UI, with UIAutomation waitForInvalid() on device.
+     *
+     * @param <T>        sub-class of UIAElement
+     * @param javaScript the javascript that uniquely identify the element, such as "window.tabBars()['MainTabBar']",
+     *                   or "window.elements()[1].buttons()[0]"
+     * @param type       type of uia element, such as UIATabBar
+     *
+     * @return true if element identified by javascript is gone, or false if timeout
+     *
+     * @throws java.lang.InterruptedException in case of interruption
+     */
+    private <T extends UIAElement> boolean waitForNoElement(String javaScript, Class<T> type)
+        throws InterruptedException {
+        return this.waitOnDevice(javaScript, "!e.isValid() || waitForInvalid(e) || !e.isValid()",
+            "wait for no " + type.getSimpleName());
+    }
+
+    /**
+     * Waits for an element exists on current UI, based on element type and name. This method loads full element tree,
+     * with adaptive backoff between loads: the delay doubles while the screen stays unchanged, and is reset when it
+     * changes.
      *
      * @param <T>  sub-class of UIAElement
      * @param type type of uia element, such as UIATabBar
@@ -289,17 +485,23 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
      */
     public <T extends UIAElement> T waitForElement(Class<T> type, String name) throws InterruptedException {
         long end = System.currentTimeMillis() + TIMEOUT_SECOND * 1000;
+        Backoff backoff = new Backoff();
+        long hash = 0;
         while (System.currentTimeMillis() < end) {
             try {
-                T element = mainWindow().findElement(type, name);
+                UIAWindow window = mainWindow();
+                T element = window.findElement(type, name);
                 if (element != null) {
                     return element;
                 }
+                if (window.subtreeHash() != hash) {
+                    hash = window.subtreeHash();
+                    backoff.reset();
+                }
             } catch (Exception ex) {
                 LOG.warn("{}", ex.getMessage());
-                Thread.sleep(10000);
             }
-            Utils.sleep(5000, "wait for " + type.getSimpleName() + "[" + name + "]");
+            backoff.sleep(end, "wait for " + type.getSimpleName() + "[" + name + "]");
         }
         return null;
     }
@@ -316,20 +518,78 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
      */
     public <T extends UIAElement> void waitForNoElement(Class<T> type, String name) throws InterruptedException {
         long end = System.currentTimeMillis() + TIMEOUT_SECOND * 1000;
+        Backoff backoff = new Backoff();
+        long hash = 0;
         while (System.currentTimeMillis() < end) {
             try {
-                T element = mainWindow().findElement(type, name);
+                UIAWindow window = mainWindow();
+                T element = window.findElement(type, name);
                 if (element == null) {
                     return;
                 }
+                if (window.subtreeHash() != hash) {
+                    hash = window.subtreeHash();
+                    backoff.reset();
+                }
             } catch (Exception ex) {
                 LOG.warn("{}", ex.getMessage());
-                Thread.sleep(10000);
             }
-            Utils.sleep(5000, "wait for no " + type.getSimpleName() + "[" + name + "]");
+            backoff.sleep(end, "wait for no " + type.getSimpleName() + "[" + name + "]");
         }
     }
 
+    /*
+     * Checks the condition on element e in a loop on device, so that the wait returns as soon as the condition holds.
+     * Each request waits on device for a slice of the remaining time. A failed request is retried with host side
+     * backoff.
+     */
+    private boolean waitOnDevice(String javaScript, String condition, String message) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_SECOND * 1000;
+        Backoff backoff = new Backoff();
+        while (System.currentTimeMillis() < end) {
+            long slice = Math.min(WAIT_SLICE_MILLIS, end - System.currentTimeMillis());
+            String js = new StringBuilder()
+                .append("var found = (function() {\n")
+                .append("  var end = new Date().getTime() + ").append(slice).append(";\n")
+                .append("  var waitForInvalid = function(e) {\n")
+                .append("    target.pushTimeout(Math.max(end - new Date().getTime(), 0) / 1000);\n")
+                .append("    try {\n")
+                .append("      return e.waitForInvalid();\n")
+                .append("    } finally {\n")
+                .append("      target.popTimeout();\n")
+                .append("    }\n")
+                .append("  };\n")
+                .append("  target.pushTimeout(0);\n")
+                .append("  try {\n")
+                .append("    while (true) {\n")
+                .append("      var window = app.mainWindow();\n")
+                .append("      var e = ").append(javaScript).append(";\n")
+                .append("      if (").append(condition).append(") {\n")
+                .append("        return true;\n")
+                .append("      }\n")
+                .append("      if (new Date().getTime() >= end) {\n")
+                .append("        return false;\n")
+                .append("      }\n")
+                .append("      target.delay(").append(WAIT_POLL_SECOND).append(");\n")
+                .append("    }\n")
+                .append("  } finally {\n")
+                .append("    target.popTimeout();\n")
+                .append("  }\n")
+                .append("})();\n")
+                .append("UIALogger.logMessage(found.toString());")
+                .toString();
+            try {
+                if (Boolean.parseBoolean(Instruments.getLogMessage(instruments.runJavaScript(js)))) {
+                    return true;
+                }
+            } catch (UIAException | NoSuchElementException ex) {
+                LOG.warn("{}", ex.getMessage());
+                backoff.sleep(end, message);
+            }
+        }
+        return false;
+    }
+
     public <T extends UIAElement> String getElementName(String javaScript, Class<T> type) {
         String js = "var e = " + javaScript + "; e.logElement();";
         String line = instruments.runJavaScript(js).stream()
@@ -355,13 +615,10 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
             File png = this.saveIntoFile("ss", "png", "");
             String name = UUID.randomUUID().toString();
             this.captureScreenWithName(name);
-            File f = FileUtils.listFiles(instruments.getUiaResultsPath().toFile(), new String[]{"png"}, true).stream()
-                .filter(p -> p.getName().contains(name)).findFirst().get();
-            LOG.trace("{}", f);
-            FileUtils.copyFile(f, png);
+            instruments.moveScreenCapture(name, png);
             LOG.trace("time {} ms", System.currentTimeMillis() - start);
             return png;
-        } catch (IOException ex) {
+        } catch (IOException | InterruptedException ex) {
             throw new UIAException("Cannot take screenshot", ex);
         }
     }
@@ -381,6 +638,28 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
         return mw();
     }
 
+    /**
+     * Loads current window element tree without blocking the calling thread. The element tree is parsed in the common
+     * fork-join pool, and the internal currentWindow is updated upon successful completion.
+     *
+     * @return future of a UIAWindow object representing current window element tree
+     */
+    public CompletableFuture<UIAWindow> mainWindowAsync() {
+        long start = System.currentTimeMillis();
+        if (structuredResponse) {
+            return instruments.callJavaScriptAsync(JS_ELEMENT_TREE).thenApplyAsync(tree -> {
+                UIAWindow window = this.toWindow((JSONObject) tree);
+                LOG.trace("time {} ms", System.currentTimeMillis() - start);
+                return window;
+            });
+        }
+        return instruments.runJavaScriptAsync("window.logElementTree();").thenApplyAsync(lines -> {
+            UIAWindow window = this.toWindow(lines);
+            LOG.trace("time {} ms", System.currentTimeMillis() - start);
+            return window;
+        });
+    }
+
     @Override
     public UIAWindow windows(int index) throws UIAException {
         long start = System.currentTimeMillis();
@@ -612,6 +891,18 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
         this.instruments.runJavaScript("var e = " + javaScript + "; e.tap();");
     }
 
+    public CompletableFuture<Void> tapAsync(float x, float y) {
+        return this.instruments.runJavaScriptAsync("target.tap(" + toCGString(x, y) + ");").thenApply(lines -> null);
+    }
+
+    public CompletableFuture<Void> tapAsync(UIAElement element) {
+        return this.tapAsync(element.getJsPath());
+    }
+
+    public CompletableFuture<Void> tapAsync(String javaScript) {
+        return this.instruments.runJavaScriptAsync("var e = " + javaScript + "; e.tap();").thenApply(lines -> null);
+    }
+
     @Override
     public void touchAndHold(Point2D.Float point, int duration) {
         this.instruments.runJavaScript("target.touchAndHold(" + toCGString(point) + ", " + duration + ");");
@@ -715,17 +1006,47 @@ public class UiAutomationDevice extends LibIMobileDevice implements UIATarget, U
 
     private UIAWindow mw() {
         long start = System.currentTimeMillis();
-        List<String> lines = loadElementTree();
+        UIAWindow window = structuredResponse
+            ? toWindow((JSONObject) instruments.callJavaScript(JS_ELEMENT_TREE))
+            : toWindow(loadElementTree());
+        LOG.trace("time {} ms", System.currentTimeMillis() - start);
+        return window;
+    }
+
+    private UIAWindow toWindow(List<String> lines) {
         try {
             File f = this.saveIntoFile("window-element-tree", "txt", "");
             FileUtils.writeLines(f, lines);
         } catch (IOException ex) {
             LOG.warn(ex.getMessage());
         }
-        UIAWindow window = UIA.newInstance().parseElementTree(lines);
+        return this.updateWindow(UIA.newInstance().parseElementTree(lines));
+    }
+
+    private UIAWindow toWindow(JSONObject tree) {
+        try {
+            File f = this.saveIntoFile("window-element-tree", "json", "");
+            FileUtils.write(f, tree.toString(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            LOG.warn(ex.getMessage());
+        }
+        return this.updateWindow(UIA.newInstance().parseElementTree(0, tree));
+    }
+
+    private UIAWindow updateWindow(UIAWindow window) {
+        if (incrementalRefresh) {
+            synchronized (windowLock) {
+                ElementTreeDiff diff = UIA.newInstance().refreshElementTree(currentWindow, window);
+                LOG.debug("window refreshed, {}", diff);
+                UIAWindow refreshed = diff.getWindow();
+                refreshed.setDevice(this);
+                this.lastWindowDiff = diff;
+                this.currentWindow = refreshed;
+                return refreshed;
+            }
+        }
         window.setDevice(this);
         this.currentWindow = window;
-        LOG.trace("time {} ms", System.currentTimeMillis() - start);
         return window;
     }
 
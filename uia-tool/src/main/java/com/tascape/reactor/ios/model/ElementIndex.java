@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Secondary indexes of a window and its descendant elements, by element class, by exact name, and by name trigrams.
+ * All lists keep the depth-first order of the tree, so the first match is the same element a recursive search
+ * returns. The index is a snapshot of a parsed element tree; the trigram index is built on the first partial-name
+ * lookup.
+ *
+ * @author linsong wang
+ */
+final class ElementIndex {
+
+    private static final int GRAM = 3;
+
+    private static final Pattern REGEX_META = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private final Map<Class<? extends UIAElement>, List<UIAElement>> byClass = new HashMap<>();
+
+    private final Map<String, List<UIAElement>> byName = new HashMap<>();
+
+    private final List<UIAElement> all = new ArrayList<>();
+
+    private Map<Long, List<UIAElement>> byTrigram;
+
+    ElementIndex(UIAElement root) {
+        add(root);
+    }
+
+    <T extends UIAElement> T find(Class<T> type, String name) {
+        List<UIAElement> candidates = name == null ? byClass.get(type) : byName.get(name);
+        if (candidates == null) {
+            return null;
+        }
+        for (UIAElement e : candidates) {
+            if (e.getClass().equals(type)) {
+                return type.cast(e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first element of type, whose name contains the partial name, or matches it as regular expression.
+     * A plain partial name of three or more characters is looked up through the trigram index, with the shortest
+     * posting list of its trigrams as candidates.
+     */
+    <T extends UIAElement> T findPartialName(Class<T> type, String partialName) {
+        List<UIAElement> candidates = byClass.get(type);
+        if (candidates == null) {
+            return null;
+        }
+        boolean regex = REGEX_META.matcher(partialName).find();
+        if (!regex) {
+            Map<Long, List<UIAElement>> trigrams = getTrigrams();
+            for (int i = 0; i + GRAM <= partialName.length(); i++) {
+                List<UIAElement> postings = trigrams.get(trigram(partialName, i));
+                if (postings == null) {
+                    return null;
+                }
+                if (postings.size() < candidates.size()) {
+                    candidates = postings;
+                }
+            }
+        }
+        for (UIAElement e : candidates) {
+            if (!e.getClass().equals(type)) {
+                continue;
+            }
+            if (e.name().contains(partialName) || regex && e.name().matches(partialName)) {
+                return type.cast(e);
+            }
+        }
+        return null;
+    }
+
+    <T extends UIAElement> List<T> findAll(Class<T> type, Predicate<? super T> predicate) {
+        List<UIAElement> candidates = byClass.get(type);
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        List<T> found = new ArrayList<>();
+        for (UIAElement e : candidates) {
+            T t = type.cast(e);
+            if (predicate.test(t)) {
+                found.add(t);
+            }
+        }
+        return found;
+    }
+
+    private void add(UIAElement element) {
+        all.add(element);
+        byClass.computeIfAbsent(element.getClass(), c -> new ArrayList<>()).add(element);
+        if (element.name() != null) {
+            byName.computeIfAbsent(element.name(), n -> new ArrayList<>()).add(element);
+        }
+        for (UIAElement e : element.elements()) {
+            add(e);
+        }
+    }
+
+    private synchronized Map<Long, List<UIAElement>> getTrigrams() {
+        if (byTrigram == null) {
+            Map<Long, List<UIAElement>> trigrams = new HashMap<>();
+            for (UIAElement e : all) {
+                String name = e.name();
+                for (int i = 0; name != null && i + GRAM <= name.length(); i++) {
+                    List<UIAElement> postings = trigrams.computeIfAbsent(trigram(name, i), g -> new ArrayList<>());
+                    if (postings.isEmpty() || postings.get(postings.size() - 1) != e) {
+                        postings.add(e);
+                    }
+                }
+            }
+            byTrigram = trigrams;
+        }
+        return byTrigram;
+    }
+
+    private static long trigram(String name, int i) {
+        return (long) name.charAt(i) << 32 | (long) name.charAt(i + 1) << 16 | name.charAt(i + 2);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import com.tascape.reactor.ios.comm.Instruments;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * States of one UI element, queried together with other elements in one JavaScript request. The element paths are
+ * resolved once on device, all requested states are evaluated, and the result is logged as one JSON array.
+ *
+ * @author linsong wang
+ */
+public class ElementSnapshot {
+
+    private static final String ERROR = "error";
+
+    private final UIAElement element;
+
+    private final Map<ElementState, Object> states = new EnumMap<>(ElementState.class);
+
+    private String error;
+
+    ElementSnapshot(UIAElement element) {
+        this.element = element;
+    }
+
+    public UIAElement getElement() {
+        return element;
+    }
+
+    /**
+     * @return JavaScript error of resolving the element or evaluating its states on device, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean has(ElementState state) {
+        return states.containsKey(state);
+    }
+
+    public boolean isVisible() {
+        return getFlag(ElementState.VISIBLE);
+    }
+
+    public boolean isEnabled() {
+        return getFlag(ElementState.ENABLED);
+    }
+
+    public boolean isValid() {
+        return getFlag(ElementState.VALID);
+    }
+
+    public boolean hasKeyboardFocus() {
+        return getFlag(ElementState.KEYBOARD_FOCUS);
+    }
+
+    public String label() {
+        return getText(ElementState.LABEL);
+    }
+
+    public String value() {
+        return getText(ElementState.VALUE);
+    }
+
+    public String name() {
+        return getText(ElementState.NAME);
+    }
+
+    public boolean getFlag(ElementState state) {
+        check(state);
+        return (Boolean) states.get(state);
+    }
+
+    public String getText(ElementState state) {
+        check(state);
+        return (String) states.get(state);
+    }
+
+    @Override
+    public String toString() {
+        return element.getClass().getSimpleName() + "['" + element.name() + "'] "
+            + (error == null ? states.toString() : error);
+    }
+
+    /**
+     * Creates one JavaScript request, which evaluates the states of all elements, and logs them as one JSON array.
+     *
+     * @param jsPaths JavaScript paths of elements
+     * @param states  states to query
+     *
+     * @return JavaScript request
+     */
+    public static String toJavaScript(List<String> jsPaths, ElementState... states) {
+        StringBuilder sb = new StringBuilder("var snapshots = [];\n");
+        for (String jsPath : jsPaths) {
+            sb.append("try {\n")
+                .append("  var e = ").append(jsPath).append(";\n")
+                .append("  snapshots.push({");
+            for (int i = 0; i < states.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(JSONObject.quote(states[i].name())).append(": ")
+                    .append(states[i].getJavaScript());
+            }
+            sb.append("});\n")
+                .append("} catch(err) {\n")
+                .append("  snapshots.push({").append(JSONObject.quote(ERROR)).append(": err.message + ''});\n")
+                .append("}\n");
+        }
+        return sb.append("UIALogger.logMessage(JSON.stringify(snapshots));").toString();
+    }
+
+    /**
+     * Parses response of the JavaScript request created by {@link #toJavaScript(List, ElementState...)}.
+     *
+     * @param elements elements, in the order of their JavaScript paths
+     * @param lines    response of JavaScript request
+     * @param states   states queried
+     *
+     * @return snapshots, in the order of elements
+     *
+     * @throws UIAException if response cannot be parsed
+     */
+    public static List<ElementSnapshot> parse(List<? extends UIAElement> elements, List<String> lines,
+        ElementState... states) throws UIAException {
+        JSONArray array;
+        try {
+            array = new JSONArray(Instruments.getLogMessage(lines));
+        } catch (RuntimeException ex) {
+            throw new UIAException("Cannot parse element states " + lines, ex);
+        }
+        if (array.length() != elements.size()) {
+            throw new UIAException("Expect states of " + elements.size() + " elements, got " + array.length());
+        }
+        List<ElementSnapshot> snapshots = new ArrayList<>(elements.size());
+        for (int i = 0; i < array.length(); i++) {
+            ElementSnapshot snapshot = new ElementSnapshot(elements.get(i));
+            JSONObject json = array.getJSONObject(i);
+            if (json.has(ERROR)) {
+                snapshot.error = json.optString(ERROR);
+            } else {
+                for (ElementState state : states) {
+                    snapshot.states.put(state, state.isFlag() ? json.optBoolean(state.name())
+                        : json.isNull(state.name()) ? null : json.get(state.name()).toString());
+                }
+            }
+            snapshots.add(snapshot);
+        }
+        return Collections.unmodifiableList(snapshots);
+    }
+
+    private void check(ElementState state) {
+        if (error != null) {
+            throw new UIAException("Cannot get " + state + " of " + this);
+        }
+        if (!states.containsKey(state)) {
+            throw new UIAException(state + " is not queried");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+/**
+ * States of UI element which can be queried in one batch, see {@link ElementSnapshot}. Flag states are normalized
+ * into boolean, text states are kept as string, or null.
+ *
+ * @author linsong wang
+ */
+public enum ElementState {
+    VISIBLE("!!e.isVisible()"),
+    ENABLED("!!e.isEnabled()"),
+    VALID("!!e.isValid()"),
+    KEYBOARD_FOCUS("!!e.hasKeyboardFocus()"),
+    LABEL("e.label()"),
+    VALUE("e.value()"),
+    NAME("e.name()");
+
+    private final String javaScript;
+
+    ElementState(String javaScript) {
+        this.javaScript = javaScript;
+    }
+
+    /**
+     * @return JavaScript expression of the state, on element e
+     */
+    String getJavaScript() {
+        return javaScript;
+    }
+
+    boolean isFlag() {
+        return javaScript.startsWith("!!");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structural difference between two refreshes of a window element tree. Added and removed lists hold every element
+ * of the added or removed subtrees. Moved elements are reused from the previous tree, under a different parent, or
+ * ahead of a sibling which used to be in front of them.
+ *
+ * @author linsong wang
+ */
+public class ElementTreeDiff {
+
+    private final UIAWindow window;
+
+    private final List<UIAElement> added;
+
+    private final List<UIAElement> removed;
+
+    private final List<UIAElement> moved;
+
+    ElementTreeDiff(UIAWindow window, List<UIAElement> added, List<UIAElement> removed, List<UIAElement> moved) {
+        this.window = window;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.moved = Collections.unmodifiableList(moved);
+    }
+
+    /**
+     * @return the refreshed window, which is the previous window instance if it could be reused
+     */
+    public UIAWindow getWindow() {
+        return window;
+    }
+
+    public List<UIAElement> getAdded() {
+        return added;
+    }
+
+    public List<UIAElement> getRemoved() {
+        return removed;
+    }
+
+    public List<UIAElement> getMoved() {
+        return moved;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && moved.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added " + added.size() + ", removed " + removed.size() + ", moved " + moved.size();
+    }
+}
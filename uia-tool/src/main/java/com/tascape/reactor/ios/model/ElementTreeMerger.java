@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges a newly parsed element tree into the previous one. Subtrees with the same hash are taken over as they are,
+ * anywhere in the previous tree, preferring the ones under the same parent. A changed element is matched with a
+ * previous sibling of same class and name, and updated in place. Everything else in the new tree is added.
+ *
+ * @author linsong wang
+ */
+final class ElementTreeMerger {
+
+    private final Map<Long, List<UIAElement>> previousByHash = new HashMap<>();
+
+    private final Map<UIAElement, UIAElement> previousParents = new IdentityHashMap<>();
+
+    private final List<UIAElement> previousElements = new ArrayList<>();
+
+    private final Set<UIAElement> consumed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Previous elements with a reused descendant, whose subtree cannot be taken over as a whole any more.
+     */
+    private final Set<UIAElement> split = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final List<UIAElement> added = new ArrayList<>();
+
+    private final List<UIAElement> moved = new ArrayList<>();
+
+    ElementTreeDiff merge(UIAWindow previous, UIAWindow current) {
+        if (previous == null || !previous.getClass().equals(current.getClass())
+            || !previous.name().equals(current.name()) || previous.index() != current.index()) {
+            collect(current, added);
+            List<UIAElement> removed = new ArrayList<>();
+            if (previous != null) {
+                collect(previous, removed);
+            }
+            return new ElementTreeDiff(current, added, removed, moved);
+        }
+        if (previous.subtreeHash() == current.subtreeHash()) {
+            return new ElementTreeDiff(previous, added, new ArrayList<>(), moved);
+        }
+
+        index(previous, null);
+        consumed.add(previous);
+        mergeInto(previous, current);
+        previous.resetElementIndex();
+
+        List<UIAElement> removed = new ArrayList<>();
+        previousElements.stream().filter(e -> !consumed.contains(e)).forEach(removed::add);
+        return new ElementTreeDiff(previous, added, removed, moved);
+    }
+
+    private void index(UIAElement element, UIAElement parent) {
+        previousElements.add(element);
+        previousParents.put(element, parent);
+        previousByHash.computeIfAbsent(element.subtreeHash(), h -> new ArrayList<>()).add(element);
+        for (UIAElement e : element.elements()) {
+            index(e, element);
+        }
+    }
+
+    /*
+     * target is from the previous tree, source is the newly parsed counterpart
+     */
+    private void mergeInto(UIAElement target, UIAElement source) {
+        target.setRect(source.rect());
+        target.setSubtreeHash(source.subtreeHash());
+        UIAElement[] previousChildren = target.elements();
+        target.clearElements();
+        int lastIndex = -1;
+        for (UIAElement child : source.elements()) {
+            UIAElement reused = takeSubtree(target, child);
+            if (reused == null) {
+                reused = takeSibling(previousChildren, child);
+                if (reused != null) {
+                    mergeInto(reused, child);
+                }
+            }
+            if (reused == null) {
+                collect(child, added);
+                target.addElement(child);
+                continue;
+            }
+            if (previousParents.get(reused) != target || reused.index() < lastIndex) {
+                moved.add(reused);
+            } else {
+                lastIndex = reused.index();
+            }
+            target.addElement(reused);
+        }
+    }
+
+    private UIAElement takeSubtree(UIAElement parent, UIAElement source) {
+        List<UIAElement> candidates = previousByHash.get(source.subtreeHash());
+        if (candidates == null) {
+            return null;
+        }
+        UIAElement found = null;
+        for (UIAElement candidate : candidates) {
+            if (candidate.isSameNode(source) && isFree(candidate)) {
+                if (previousParents.get(candidate) == parent) {
+                    found = candidate;
+                    break;
+                }
+                if (found == null) {
+                    found = candidate;
+                }
+            }
+        }
+        if (found != null) {
+            UIAElement previousParent = previousParents.get(found);
+            if (previousParent != null && previousParent != parent) {
+                // the previous parent may be left out of the new tree, and must not hold on to a moved subtree
+                previousParent.removeElement(found);
+            }
+            markAncestors(found);
+            consume(found);
+        }
+        return found;
+    }
+
+    private UIAElement takeSibling(UIAElement[] siblings, UIAElement source) {
+        for (UIAElement sibling : siblings) {
+            if (!consumed.contains(sibling) && sibling.getClass().equals(source.getClass())
+                && sibling.name().equals(source.name())) {
+                markAncestors(sibling);
+                consumed.add(sibling);
+                return sibling;
+            }
+        }
+        return null;
+    }
+
+    private boolean isFree(UIAElement element) {
+        return !consumed.contains(element) && !split.contains(element);
+    }
+
+    /*
+     * stops at the first ancestor already marked, so that each previous element is marked at most once
+     */
+    private void markAncestors(UIAElement element) {
+        UIAElement parent = previousParents.get(element);
+        while (parent != null && split.add(parent)) {
+            parent = previousParents.get(parent);
+        }
+    }
+
+    private void consume(UIAElement element) {
+        consumed.add(element);
+        for (UIAElement e : element.elements()) {
+            consume(e);
+        }
+    }
+
+    private static void collect(UIAElement element, List<UIAElement> elements) {
+        elements.add(element);
+        for (UIAElement e : element.elements()) {
+            collect(e, elements);
+        }
+    }
+}
@@ -18,12 +18,13 @@ package com.tascape.reactor.ios.model;
 import java.awt.geom.Rectangle2D;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,12 +35,13 @@ import org.slf4j.LoggerFactory;
 public class UIA {
     private static final Logger LOG = LoggerFactory.getLogger(UIA.class);
 
-    private static final Pattern PATTERN_UIA = Pattern.compile("(UIA.+?) \"(.+?)\" (\\{\\{.+?\\}, \\{.+?\\}\\})",
-        Pattern.DOTALL | Pattern.MULTILINE);
-
     private static final String UIA_CLASS = "UIA";
 
-    private static final String ELEMENTS = "elements: {";
+    private static final String NAME_START = " \"";
+
+    private static final String NAME_END = "\" {{";
+
+    private static final String RECT_END = "}}";
 
     public static UIA newInstance() {
         return new UIA();
@@ -50,13 +52,28 @@ public class UIA {
     }
 
     public UIAWindow parseElementTree(int index, List<String> elementTree) throws UIAException {
-        while (!elementTree.get(0).startsWith(UIAWindow.class.getSimpleName())) {
-            elementTree.remove(0);
-        }
+        return this.parseElementTree(index, elementTree.iterator());
+    }
+
+    /**
+     * Parses output of logElementTree() in one pass. Nesting is taken from the leading tabs of each element line, and
+     * the last element seen on each depth is kept on a stack as parent of the next deeper element. The subtree of an
+     * element is hashed when it is popped off the stack, see {@link #refreshElementTree(UIAWindow, List)}. Lines before
+     * UIAWindow, and the "elements: {" and "}" lines, are skipped. An element name may span multiple lines, the
+     * element line is complete when it ends with its rect.
+     *
+     * @param index       index of the window in app.windows()
+     * @param elementTree lines of element tree
+     *
+     * @return window with all its descendant elements
+     *
+     * @throws UIAException if there is no window, or an element line cannot be parsed
+     */
+    public UIAWindow parseElementTree(int index, Iterator<String> elementTree) throws UIAException {
         UIAWindow window = null;
-        while (elementTree.size() > 0) {
-            String line = elementTree.remove(0);
-            if (line.startsWith("UIAWindow")) {
+        while (elementTree.hasNext()) {
+            String line = elementTree.next();
+            if (line.startsWith(UIAWindow.class.getSimpleName())) {
                 window = (UIAWindow) parseUIAElement(line);
                 break;
             }
@@ -65,69 +82,152 @@ public class UIA {
             throw new UIAException("Cannot parse element tree, no UIAWindow found");
         }
         window.setIndex(index);
-        if (!elementTree.isEmpty()) {
-            parseElements(window, elementTree.subList(0, elementTree.size()));
+
+        List<UIAElement> parents = new ArrayList<>();
+        parents.add(window);
+        StringBuilder uiaLine = null;
+        int uiaDepth = 0;
+        while (elementTree.hasNext()) {
+            String line = elementTree.next();
+            if (uiaLine != null) {
+                uiaLine.append('\n').append(line);
+            } else {
+                int depth = 0;
+                while (depth < line.length() && line.charAt(depth) == '\t') {
+                    depth++;
+                }
+                if (!line.startsWith(UIA_CLASS, depth)) {
+                    continue;
+                }
+                uiaLine = new StringBuilder(line.length()).append(line, depth, line.length());
+                uiaDepth = Math.max(depth, 1);
+            }
+            if (endsWithRect(uiaLine)) {
+                UIAElement element = parseUIAElement(uiaLine.toString());
+                uiaLine = null;
+                int parent = Math.min(uiaDepth, parents.size()) - 1;
+                while (parents.size() > parent + 1) {
+                    parents.remove(parents.size() - 1).hashSubtree();
+                }
+                parents.get(parent).addElement(element);
+                parents.add(element);
+            }
+        }
+        while (!parents.isEmpty()) {
+            parents.remove(parents.size() - 1).hashSubtree();
         }
         return window;
     }
 
-    public UIAElement parseUIAElement(String uiaLine) throws UIAException {
-        Matcher m = PATTERN_UIA.matcher(uiaLine);
-        if (m.matches()) {
-            UIAElement e = newElement(m.group(1));
-            e.setName(m.group(2));
-            String[] r = m.group(3).replaceAll("\\{", "").replaceAll("\\}", "").split(",");
-            e.setRect(new Rectangle2D.Float(Float.parseFloat(r[0]), Float.parseFloat(r[1]),
-                Float.parseFloat(r[2]), Float.parseFloat(r[3])));
-            return e;
-        }
-        throw new UIAException("Cannot parse " + uiaLine);
+    /**
+     * Parses output of logElementTree(), and merges it into the previous window. Unchanged subtrees of the previous
+     * window, found by subtree hash, are reused as they are; changed elements are updated in place when a previous
+     * sibling of same class and name exists. References to the previous elements held by callers stay valid, as long
+     * as the elements are not removed.
+     *
+     * @param previous    previous window, or null
+     * @param elementTree lines of element tree
+     *
+     * @return difference from the previous window, which also holds the refreshed window
+     *
+     * @throws UIAException if there is no window, or an element line cannot be parsed
+     */
+    public ElementTreeDiff refreshElementTree(UIAWindow previous, List<String> elementTree) throws UIAException {
+        int index = previous == null ? 0 : previous.index();
+        return this.refreshElementTree(previous, this.parseElementTree(index, elementTree));
     }
 
-    private void clean(List<String> elementTree) {
-        while (!elementTree.get(0).startsWith(UIAWindow.class.getSimpleName())) {
-            elementTree.remove(0);
-        }
+    /**
+     * Merges a newly parsed window into the previous window, see {@link #refreshElementTree(UIAWindow, List)}.
+     *
+     * @param previous previous window, or null
+     * @param current  newly parsed window
+     *
+     * @return difference from the previous window, which also holds the refreshed window
+     */
+    public ElementTreeDiff refreshElementTree(UIAWindow previous, UIAWindow current) {
+        return new ElementTreeMerger().merge(previous, current);
     }
 
-    private void parseElements(UIAElement root, List<String> elementTree) throws UIAException {
-        List<String> lines = elementTree.stream().map(l -> StringUtils.replace(l, "\t", "", 1))
-            .collect(Collectors.toList());
-        UIAElement element = null;
-        List<String> childLines = new ArrayList<>();
-        String uiaLine = "";
-        while (lines.size() > 0) {
-            String line = lines.remove(0);
-
-            if (line.startsWith(UIA_CLASS)) {
-                uiaLine = line;
-
-            } else if (line.startsWith(ELEMENTS)) {
-                childLines = new ArrayList<>();
-
-            } else if (line.startsWith("\t")) {
-                childLines.add(line);
-
-            } else if (line.startsWith("}")) {
-                parseElements(element, childLines);
-                childLines = new ArrayList<>();
-
-            } else if (!childLines.isEmpty()) {
-                childLines.add(line);
+    /**
+     * Parses element tree in compact JSON, as returned by device function elementTree(e) in structured response.
+     * Each node is {t: type, n: name, r: [x, y, w, h], c: [children]}, a null name is kept as "(null)", the same as
+     * in logElementTree() output.
+     *
+     * @param index       index of the window in app.windows()
+     * @param elementTree element tree of window
+     *
+     * @return window with all its descendant elements
+     *
+     * @throws UIAException if the root is not a window, or a node cannot be parsed
+     */
+    public UIAWindow parseElementTree(int index, JSONObject elementTree) throws UIAException {
+        UIAElement element;
+        try {
+            element = toElement(elementTree);
+        } catch (JSONException ex) {
+            throw new UIAException("Cannot parse element tree", ex);
+        }
+        if (!(element instanceof UIAWindow)) {
+            throw new UIAException("Cannot parse element tree, no UIAWindow found");
+        }
+        element.setIndex(index);
+        return (UIAWindow) element;
+    }
 
-            } else if (StringUtils.isNotEmpty(uiaLine)) {
-                uiaLine += "\n" + line;
+    private static UIAElement toElement(JSONObject node) throws JSONException {
+        UIAElement e = newElement(node.getString("t"));
+        e.setName(node.isNull("n") ? "(null)" : node.get("n").toString());
+        JSONArray r = node.getJSONArray("r");
+        e.setRect(new Rectangle2D.Float((float) r.getDouble(0), (float) r.getDouble(1), (float) r.getDouble(2),
+            (float) r.getDouble(3)));
+        JSONArray children = node.optJSONArray("c");
+        if (children != null) {
+            for (int i = 0; i < children.length(); i++) {
+                e.addElement(toElement(children.getJSONObject(i)));
             }
+        }
+        e.hashSubtree();
+        return e;
+    }
 
-            if (uiaLine.endsWith("}}")) {
-                element = parseUIAElement(uiaLine);
-                uiaLine = "";
-                root.addElement(element);
+    public UIAElement parseUIAElement(String uiaLine) throws UIAException {
+        int nameStart = uiaLine.indexOf(NAME_START);
+        int nameEnd = nameStart < 0 ? -1 : uiaLine.indexOf(NAME_END, nameStart + NAME_START.length());
+        if (!uiaLine.startsWith(UIA_CLASS) || nameEnd < 0 || !uiaLine.endsWith(RECT_END)) {
+            throw new UIAException("Cannot parse " + uiaLine);
+        }
+        UIAElement e = newElement(uiaLine.substring(0, nameStart));
+        e.setName(uiaLine.substring(nameStart + NAME_START.length(), nameEnd));
+        float[] r = new float[4];
+        int i = 0;
+        int from = nameEnd + NAME_END.length();
+        int to = uiaLine.length() - RECT_END.length();
+        try {
+            for (; i < r.length; i++) {
+                int comma = i < r.length - 1 ? uiaLine.indexOf(',', from) : to;
+                if (comma < 0) {
+                    break;
+                }
+                r[i] = Float.parseFloat(StringUtils.strip(uiaLine.substring(from, comma), " {}"));
+                from = comma + 1;
             }
+        } catch (NumberFormatException ex) {
+            throw new UIAException("Cannot parse " + uiaLine, ex);
         }
+        if (i < r.length) {
+            throw new UIAException("Cannot parse " + uiaLine);
+        }
+        e.setRect(new Rectangle2D.Float(r[0], r[1], r[2], r[3]));
+        return e;
+    }
+
+    private static boolean endsWithRect(CharSequence uiaLine) {
+        int n = uiaLine.length();
+        return n >= 2 && uiaLine.charAt(n - 1) == '}' && uiaLine.charAt(n - 2) == '}';
     }
 
-    private static UIAElement newElement(String uia) {
+    static UIAElement newElement(String uia) {
         switch (uia) {
             case "UIAActionSheet":
                 return new UIAActionSheet();
@@ -20,7 +20,9 @@ import com.tascape.reactor.ios.driver.UiAutomationDevice;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -56,6 +58,8 @@ public class UIAElement {
 
     private UiAutomationDevice device;
 
+    private long subtreeHash;
+
     public int index() {
         return index;
     }
@@ -416,6 +420,22 @@ public class UIAElement {
         return Instruments.getLogMessage(instruments.runJavaScript(js));
     }
 
+    /**
+     * Queries states of this element in one request.
+     *
+     * @param states states to query
+     *
+     * @return snapshot of element states
+     *
+     * @throws UIAException in case of Instruments error
+     */
+    public ElementSnapshot snapshot(ElementState... states) {
+        List<UIAElement> list = Collections.singletonList(this);
+        List<String> lines = instruments.runJavaScript(ElementSnapshot.toJavaScript(
+            Collections.singletonList(getJsPath()), states));
+        return ElementSnapshot.parse(list, lines, states).get(0);
+    }
+
     public UIAElement withName(String name) {
         return elements.stream().filter(e -> name.equals(e.name())).findFirst().orElse((UIAElement) null);
     }
@@ -429,6 +449,21 @@ public class UIAElement {
         instruments.runJavaScript(StringUtils.repeat(js, times));
     }
 
+    /**
+     * Taps on element without waiting for device response. Note that element located by FindBy may still need to
+     * load element tree before the tap is sent.
+     *
+     * @return future completed when device has tapped on element
+     */
+    public CompletableFuture<Void> tapAsync() {
+        return instruments.runJavaScriptAsync(getJsPath() + ".tap();").thenApply(lines -> null);
+    }
+
+    public CompletableFuture<String> valueAsync() {
+        String js = "var e = " + getJsPath() + "; UIALogger.logMessage(e.value());";
+        return instruments.runJavaScriptAsync(js).thenApply(Instruments::getLogMessage);
+    }
+
     /**
      * Taps on screen at element's center coordinates.
      *
@@ -516,7 +551,36 @@ public class UIAElement {
         if (StringUtils.isNotEmpty(jsPath) && isCacheLookup) {
             return jsPath;
         }
-        UIAWindow window = device.mainWindow();
+        return locate(device.mainWindow());
+    }
+
+    /**
+     * Gets js paths of many elements. FindBy elements that need a lookup are all located in one load of main window,
+     * instead of one load each.
+     *
+     * @param elements elements
+     *
+     * @return js paths, in the order of elements
+     *
+     * @throws UIAException if an element cannot be located
+     */
+    public static List<String> getJsPaths(List<? extends UIAElement> elements) {
+        List<String> paths = new ArrayList<>(elements.size());
+        UIAWindow window = null;
+        for (UIAElement e : elements) {
+            if (e.isFindby && !(StringUtils.isNotEmpty(e.jsPath) && e.isCacheLookup)) {
+                if (window == null) {
+                    window = e.device.mainWindow();
+                }
+                paths.add(e.locate(window));
+            } else {
+                paths.add(e.getJsPath());
+            }
+        }
+        return paths;
+    }
+
+    private String locate(UIAWindow window) {
         UIAElement element = null;
         if (StringUtils.isNotEmpty(name)) {
             element = window.findElement(this.getClass(), name);
@@ -586,7 +650,7 @@ public class UIAElement {
     }
 
     <T extends UIAElement> T findElementPartialName(Class<T> type, String partialName) {
-        if (type.equals(this.getClass()) && (this.name().contains(partialName)) || this.name.matches(partialName)) {
+        if (type.equals(this.getClass()) && (this.name().contains(partialName) || this.name.matches(partialName))) {
             return type.cast(this);
         }
         for (UIAElement element : elements) {
@@ -613,6 +677,56 @@ public class UIAElement {
         this.parent = parent;
     }
 
+    void clearElements() {
+        elements.clear();
+    }
+
+    void removeElement(UIAElement element) {
+        elements.removeIf(e -> e == element);
+    }
+
+    /**
+     * Gets the hash of this element and all its descendants, as parsed. Identical subtrees have the same hash, so a
+     * changed hash of window means the screen has changed.
+     *
+     * @return subtree hash
+     */
+    public long subtreeHash() {
+        return subtreeHash;
+    }
+
+    void setSubtreeHash(long subtreeHash) {
+        this.subtreeHash = subtreeHash;
+    }
+
+    /**
+     * Hashes class, name and rect of this element, together with the subtree hashes of its child elements in order.
+     * Called once all child elements are parsed.
+     */
+    void hashSubtree() {
+        long h = mix(getClass().getName().hashCode(), name == null ? 0 : name.hashCode());
+        h = mix(h, Float.floatToIntBits(rect.x));
+        h = mix(h, Float.floatToIntBits(rect.y));
+        h = mix(h, Float.floatToIntBits(rect.width));
+        h = mix(h, Float.floatToIntBits(rect.height));
+        for (UIAElement e : elements) {
+            h = mix(h, e.subtreeHash);
+        }
+        this.subtreeHash = h;
+    }
+
+    /**
+     * Checks class, name and rect of this element, without its descendants.
+     */
+    boolean isSameNode(UIAElement element) {
+        return this.getClass().equals(element.getClass()) && StringUtils.equals(this.name, element.name)
+            && this.rect.equals(element.rect);
+    }
+
+    private static long mix(long h, long v) {
+        return Long.rotateLeft(h ^ v, 31) * 0x9E3779B97F4A7C15L;
+    }
+
     String toCGString(Point2D.Float point) {
         return String.format("{x:%f, y:%f}", point.x, point.y);
     }
@@ -16,6 +16,8 @@
 package com.tascape.reactor.ios.model;
 
 import com.tascape.reactor.ios.driver.UiAutomationDevice;
+import java.util.List;
+import java.util.function.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +28,8 @@ import org.slf4j.LoggerFactory;
 public class UIAWindow extends UIAElement {
     private static final Logger LOG = LoggerFactory.getLogger(UIAWindow.class);
 
+    private volatile ElementIndex elementIndex;
+
     @Override
     public void setDevice(UiAutomationDevice device) {
         super.setDevice(device);
@@ -44,7 +48,7 @@ public class UIAWindow extends UIAElement {
     }
 
     /**
-     * Finds UI element recursively.
+     * Finds UI element recursively, through the index of element class and name.
      *
      * @param <T>  type of element
      * @param type type of element
@@ -55,11 +59,12 @@ public class UIAWindow extends UIAElement {
     @Override
     public <T extends UIAElement> T findElement(Class<T> type, String name) {
         LOG.debug("Look for {}{}", type.getSimpleName(), name == null ? "" : "['" + name + "']");
-        return type.cast(super.findElement(type, name));
+        return getElementIndex().find(type, name);
     }
 
     /**
-     * Finds UI element recursively.
+     * Finds UI element recursively, through the index of element class and name trigrams. The partial name matches
+     * an element name if it is contained in, or as a regular expression matches, the name.
      *
      * @param <T>         type of element
      * @param type        type of element
@@ -70,7 +75,20 @@ public class UIAWindow extends UIAElement {
     @Override
     public <T extends UIAElement> T findElementPartialName(Class<T> type, String partialName) {
         LOG.debug("Look for {}['{}'] (partial name)", type.getSimpleName(), partialName);
-        return type.cast(super.findElementPartialName(type, partialName));
+        return getElementIndex().findPartialName(type, partialName);
+    }
+
+    /**
+     * Finds all UI elements of type, in depth-first order, which satisfy the predicate.
+     *
+     * @param <T>       type of element
+     * @param type      type of element
+     * @param predicate condition of element
+     *
+     * @return elements found, or empty list
+     */
+    public <T extends UIAElement> List<T> findAll(Class<T> type, Predicate<? super T> predicate) {
+        return getElementIndex().findAll(type, predicate);
     }
 
     public UIAButton findButton(String name) {
@@ -92,4 +110,21 @@ public class UIAWindow extends UIAElement {
     public UIATableCell findCell(String name) {
         return this.findElement(UIATableCell.class, name);
     }
+
+    /*
+     * The index is built on first lookup, and dropped when the element tree is refreshed in place. Concurrent first
+     * lookups may build it twice, which is harmless.
+     */
+    void resetElementIndex() {
+        elementIndex = null;
+    }
+
+    private ElementIndex getElementIndex() {
+        ElementIndex index = elementIndex;
+        if (index == null) {
+            index = new ElementIndex(this);
+            elementIndex = index;
+        }
+        return index;
+    }
 }
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2016 Nebula Bay.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tascape.reactor.ios.suite;
+
+import com.tascape.reactor.SystemConfiguration;
+import com.tascape.reactor.ios.driver.UiAutomationDevice;
+import com.tascape.reactor.ios.model.UIAException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules work onto attached devices. Each device has its own work queue and worker thread. Work pinned to a device
+ * runs only there, other work is assigned to an idle device, rotating across device models, and an idle worker steals
+ * unpinned work from the tail of the longest queue. A device whose Instruments process died is quarantined for a
+ * while, and its unpinned work goes to other devices.
+ * <p>
+ * With DEVICE_LEASE on, test suites lease a device, which holds the worker of that device until released.
+ *
+ * @author linsong wang
+ */
+public final class DeviceScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceScheduler.class);
+
+    public static final String SYSPROP_DEVICE_LEASE = "reactor.suite.ios.DEVICE_LEASE";
+
+    public static final String SYSPROP_LEASE_TIMEOUT_SECOND = "reactor.suite.ios.LEASE_TIMEOUT_SECOND";
+
+    public static final String SYSPROP_LEASE_EXPIRY_SECOND = "reactor.suite.ios.LEASE_EXPIRY_SECOND";
+
+    public static final String SYSPROP_QUARANTINE_SECOND = "reactor.suite.ios.QUARANTINE_SECOND";
+
+    /**
+     * Makes UiAutomationSuite lease devices from the scheduler, instead of taking them from its DEVICES queue. Off by
+     * default.
+     */
+    public static final boolean DEVICE_LEASE
+        = SystemConfiguration.getInstance().getBooleanProperty(SYSPROP_DEVICE_LEASE, false);
+
+    public static final int LEASE_TIMEOUT_SECOND
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_LEASE_TIMEOUT_SECOND, 600);
+
+    /**
+     * Max time a device stays leased. A lease not released by then is taken as leaked, and the device is reclaimed.
+     */
+    public static final int LEASE_EXPIRY_SECOND
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_LEASE_EXPIRY_SECOND, 3600);
+
+    public static final int QUARANTINE_SECOND
+        = SystemConfiguration.getInstance().getIntProperty(SYSPROP_QUARANTINE_SECOND, 60);
+
+    /**
+     * How often an idle worker checks the health of its device.
+     */
+    private static final long HEALTH_CHECK_MILLIS = 5000;
+
+    private static DeviceScheduler instance;
+
+    private final Object lock = new Object();
+
+    private final List<Slot> slots = new ArrayList<>();
+
+    private final Map<String, Long> modelTurns = new HashMap<>();
+
+    private final LongSummaryStatistics waitStatistics = new LongSummaryStatistics();
+
+    private long turn = 0;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Work to run on one device.
+     *
+     * @param <T> type of result
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(UiAutomationDevice device) throws Exception;
+    }
+
+    /**
+     * Gets the scheduler of all attached devices.
+     *
+     * @return shared instance
+     */
+    public static synchronized DeviceScheduler getInstance() {
+        if (instance == null) {
+            instance = new DeviceScheduler(UiAutomationDevice.getAllDevices());
+        }
+        return instance;
+    }
+
+    public DeviceScheduler(List<? extends UiAutomationDevice> devices) {
+        if (devices.isEmpty()) {
+            throw new UIAException("No device to schedule");
+        }
+        devices.forEach(device -> {
+            Slot slot = new Slot(device);
+            slots.add(slot);
+            Thread worker = new Thread(() -> work(slot), "device-" + slot.uuid);
+            worker.setDaemon(true);
+            worker.start();
+        });
+        LOG.debug("Schedule {} devices of models {}", slots.size(),
+            slots.stream().map(s -> s.model).distinct().collect(Collectors.toList()));
+    }
+
+    /**
+     * Submits work to run on any available device.
+     *
+     * @param <T>  type of result
+     * @param task work to run
+     *
+     * @return future of result
+     */
+    public <T> CompletableFuture<T> submit(Task<T> task) {
+        return enqueue(new Job<>(task, null));
+    }
+
+    /**
+     * Submits work to run on one specific device.
+     *
+     * @param <T>  type of result
+     * @param uuid device uuid
+     * @param task work to run
+     *
+     * @return future of result
+     */
+    public <T> CompletableFuture<T> submit(String uuid, Task<T> task) {
+        return enqueue(new Job<>(task, uuid));
+    }
+
+    /**
+     * Leases a device exclusively. The device takes no other work until released, or until LEASE_EXPIRY_SECOND.
+     *
+     * @param timeout max time to wait
+     * @param unit    unit of timeout
+     *
+     * @return leased device
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws UIAException         if no device is available in time
+     */
+    public UiAutomationDevice lease(long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<UiAutomationDevice> leased = new CompletableFuture<>();
+        Job<Void> job = new Job<>(device -> {
+            CountDownLatch released = new CountDownLatch(1);
+            Slot slot = getSlot(device.getUuid());
+            synchronized (lock) {
+                slot.lease = released;
+            }
+            if (leased.complete(device) && !released.await(LEASE_EXPIRY_SECOND, TimeUnit.SECONDS)) {
+                LOG.warn("Device {} is not released in {} seconds, reclaim it", slot.uuid, LEASE_EXPIRY_SECOND);
+                device.release(false);
+            }
+            synchronized (lock) {
+                slot.lease = null;
+            }
+            return null;
+        }, null);
+        enqueue(job);
+        try {
+            return leased.get(timeout, unit);
+        } catch (TimeoutException ex) {
+            if (leased.cancel(false)) {
+                synchronized (lock) {
+                    slots.forEach(slot -> slot.queue.remove(job));
+                }
+                throw new UIAException("Cannot find a device available in " + unit.toMillis(timeout) + " ms");
+            }
+            return leased.join();
+        } catch (ExecutionException | CancellationException ex) {
+            throw new UIAException("Cannot lease a device", ex);
+        }
+    }
+
+    /**
+     * Releases a leased device, so that it takes other work. Its Instruments session is returned to InstrumentsPool,
+     * and gets ready for next lease in background if there is queued work the device can take.
+     *
+     * @param device leased device
+     */
+    public void release(UiAutomationDevice device) {
+        Slot slot = getSlot(device.getUuid());
+        boolean queued;
+        synchronized (lock) {
+            queued = !slot.queue.isEmpty()
+                || slots.stream().flatMap(s -> s.queue.stream()).anyMatch(job -> job.uuid == null);
+        }
+        device.release(queued);
+        synchronized (lock) {
+            if (slot.lease != null) {
+                slot.lease.countDown();
+            } else {
+                LOG.warn("Device {} is not leased", slot.uuid);
+            }
+        }
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Gets the number of devices that can take work right away.
+     *
+     * @return number of healthy idle devices
+     */
+    public int getAvailableCount() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            return (int) slots.stream().filter(s -> s.isIdle() && s.isAvailable(now)).count();
+        }
+    }
+
+    /**
+     * Gets the statistics of queue wait time in milliseconds, from work submission to start, of all devices.
+     *
+     * @return copy of statistics
+     */
+    public LongSummaryStatistics getQueueWaitStatistics() {
+        LongSummaryStatistics stats = new LongSummaryStatistics();
+        synchronized (lock) {
+            stats.combine(waitStatistics);
+        }
+        return stats;
+    }
+
+    /**
+     * Gets the statistics of queue wait time in milliseconds of work run on one device.
+     *
+     * @param uuid device uuid
+     *
+     * @return copy of statistics
+     */
+    public LongSummaryStatistics getQueueWaitStatistics(String uuid) {
+        Slot slot = getSlot(uuid);
+        LongSummaryStatistics stats = new LongSummaryStatistics();
+        synchronized (lock) {
+            stats.combine(slot.waitStatistics);
+        }
+        return stats;
+    }
+
+    /**
+     * Stops all workers. Queued work is cancelled, running work is left to finish.
+     */
+    public void shutdown() {
+        List<Job<?>> jobs = new ArrayList<>();
+        synchronized (lock) {
+            shutdown = true;
+            slots.forEach(slot -> {
+                jobs.addAll(slot.queue);
+                slot.queue.clear();
+            });
+            lock.notifyAll();
+        }
+        jobs.forEach(job -> job.future.cancel(false));
+    }
+
+    private <T> CompletableFuture<T> enqueue(Job<T> job) {
+        synchronized (lock) {
+            if (shutdown) {
+                throw new UIAException("Device scheduler is shut down");
+            }
+            Slot slot = job.uuid == null ? assign() : getSlot(job.uuid);
+            slot.queue.addLast(job);
+            lock.notifyAll();
+        }
+        return job.future;
+    }
+
+    /**
+     * Picks a device for unpinned work. Healthy idle devices come first, and among them the model which got work
+     * least recently. Otherwise the healthy device with least work is picked.
+     */
+    private Slot assign() {
+        long now = System.currentTimeMillis();
+        List<Slot> candidates = slots.stream().filter(s -> s.isAvailable(now)).collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            candidates = slots;
+        }
+        List<Slot> idle = candidates.stream().filter(Slot::isIdle).collect(Collectors.toList());
+        if (!idle.isEmpty()) {
+            candidates = idle;
+        }
+        String model = candidates.stream().map(s -> s.model).distinct()
+            .min((m1, m2) -> Long.compare(modelTurns.getOrDefault(m1, 0L), modelTurns.getOrDefault(m2, 0L)))
+            .get();
+        modelTurns.put(model, ++turn);
+        return candidates.stream().filter(s -> s.model.equals(model))
+            .min((s1, s2) -> Integer.compare(s1.load(), s2.load())).get();
+    }
+
+    private Slot getSlot(String uuid) {
+        return slots.stream().filter(s -> s.uuid.equals(uuid)).findFirst()
+            .orElseThrow(() -> new UIAException("Unknown device " + uuid));
+    }
+
+    private void work(Slot slot) {
+        while (!shutdown) {
+            if (!slot.device.isHealthy()) {
+                LOG.warn("Instruments on device {} died, quarantine for {} seconds", slot.uuid, QUARANTINE_SECOND);
+                slot.device.disconnect();
+                synchronized (lock) {
+                    slot.quarantineEnd = System.currentTimeMillis() + QUARANTINE_SECOND * 1000L;
+                    // idle workers steal the unpinned work of the quarantined device
+                    lock.notifyAll();
+                }
+            }
+            Job<?> job;
+            try {
+                job = take(slot);
+            } catch (InterruptedException ex) {
+                LOG.warn("Worker of device {} interrupted", slot.uuid);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) {
+                continue;
+            }
+            job.run(slot);
+            synchronized (lock) {
+                slot.busy = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Takes next work of a device, waiting for it.
+     *
+     * @return work to run, or null if scheduler is shut down, or device is unhealthy and not quarantined
+     */
+    private Job<?> take(Slot slot) throws InterruptedException {
+        synchronized (lock) {
+            while (!shutdown) {
+                long now = System.currentTimeMillis();
+                if (slot.isAvailable(now)) {
+                    Job<?> job = slot.queue.pollFirst();
+                    if (job == null) {
+                        job = steal(slot);
+                    }
+                    if (job != null) {
+                        slot.busy = true;
+                        long wait = now - job.submitted;
+                        waitStatistics.accept(wait);
+                        slot.waitStatistics.accept(wait);
+                        return job;
+                    }
+                    lock.wait(HEALTH_CHECK_MILLIS);
+                } else if (slot.quarantineEnd <= now) {
+                    // instruments died while idle, or is still dead after quarantine, back to worker to disconnect
+                    return null;
+                } else {
+                    lock.wait(slot.quarantineEnd - now);
+                }
+            }
+            return null;
+        }
+    }
+
+    private Job<?> steal(Slot thief) {
+        List<Slot> victims = new ArrayList<>(slots);
+        victims.remove(thief);
+        Collections.sort(victims, (s1, s2) -> Integer.compare(s2.queue.size(), s1.queue.size()));
+        for (Slot victim : victims) {
+            Iterator<Job<?>> jobs = victim.queue.descendingIterator();
+            while (jobs.hasNext()) {
+                Job<?> job = jobs.next();
+                if (job.uuid == null) {
+                    jobs.remove();
+                    LOG.trace("Device {} steals work from {}", thief.uuid, victim.uuid);
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Slot {
+        private final UiAutomationDevice device;
+
+        private final String uuid;
+
+        private final String model;
+
+        private final Deque<Job<?>> queue = new ArrayDeque<>();
+
+        private final LongSummaryStatistics waitStatistics = new LongSummaryStatistics();
+
+        private boolean busy = false;
+
+        private long quarantineEnd = 0;
+
+        private CountDownLatch lease;
+
+        Slot(UiAutomationDevice device) {
+            this.device = device;
+            this.uuid = device.getUuid();
+            this.model = device.getType();
+        }
+
+        boolean isAvailable(long now) {
+            return now >= quarantineEnd && device.isHealthy();
+        }
+
+        boolean isIdle() {
+            return !busy && queue.isEmpty();
+        }
+
+        int load() {
+            return queue.size() + (busy ? 1 : 0);
+        }
+    }
+
+    private static final class Job<T> {
+        private final Task<T> task;
+
+        private final String uuid;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private final long submitted = System.currentTimeMillis();
+
+        Job(Task<T> task, String uuid) {
+            this.task = task;
+            this.uuid = uuid;
+        }
+
+        void run(Slot slot) {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(task.run(slot.device));
+            } catch (Throwable t) {
+                LOG.warn("Work failed on device {}", slot.uuid, t);
+                future.completeExceptionally(t);
+            }
+        }
+    }
+}
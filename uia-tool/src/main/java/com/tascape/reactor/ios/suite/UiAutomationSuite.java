@@ -23,16 +23,33 @@ import java.util.concurrent.TimeUnit;
 import org.libimobiledevice.ios.driver.binding.exceptions.SDKException;
 
 /**
- * This suite supports plug-n-play for multiple DEVICES.
+ * This suite supports plug-n-play for multiple devices. Devices are taken from DEVICES, and put back by the suite, or
+ * with releaseDevice(). If DeviceScheduler.DEVICE_LEASE is on, they are leased from the shared DeviceScheduler
+ * instead, and must be returned with releaseDevice().
  *
  * @author linsong wang
  */
 public interface UiAutomationSuite {
 
+    /**
+     * All attached devices, not used if DeviceScheduler.DEVICE_LEASE is on.
+     */
     BlockingQueue<UiAutomationDevice> DEVICES
         = new ArrayBlockingQueue<>(UiAutomationDevice.getAllDevices().size(), true, UiAutomationDevice.getAllDevices());
 
+    /**
+     * Takes a device from DEVICES, waiting up to one second. If DeviceScheduler.DEVICE_LEASE is on, leases a device
+     * instead, waiting up to DeviceScheduler.LEASE_TIMEOUT_SECOND for one to become available.
+     *
+     * @return available device
+     *
+     * @throws SDKException         in case of device error
+     * @throws InterruptedException if interrupted while waiting
+     */
     default UiAutomationDevice getAvailableDevice() throws SDKException, InterruptedException {
+        if (DeviceScheduler.DEVICE_LEASE) {
+            return DeviceScheduler.getInstance().lease(DeviceScheduler.LEASE_TIMEOUT_SECOND, TimeUnit.SECONDS);
+        }
         UiAutomationDevice device = DEVICES.poll(1, TimeUnit.SECONDS);
         if (device == null) {
             throw new UIAException("Cannot find a device available");
@@ -40,7 +57,32 @@ public interface UiAutomationSuite {
         return device;
     }
 
+    /**
+     * Returns a device, so that other tests can use it, to DEVICES, or to DeviceScheduler if DEVICE_LEASE is on.
+     *
+     * @param device device from getAvailableDevice()
+     */
+    default void releaseDevice(UiAutomationDevice device) {
+        if (DeviceScheduler.DEVICE_LEASE) {
+            DeviceScheduler.getInstance().release(device);
+        } else if (!DEVICES.contains(device)) {
+            DEVICES.offer(device);
+        }
+    }
+
+    /**
+     * Gets the number of devices that can be taken right away.
+     *
+     * @return number of available devices, 0 if there is no device to schedule
+     */
     default int getNumberOfDevices() {
-        return DEVICES.size();
+        if (!DeviceScheduler.DEVICE_LEASE) {
+            return DEVICES.size();
+        }
+        try {
+            return DeviceScheduler.getInstance().getAvailableCount();
+        } catch (UIAException ex) {
+            return 0;
+        }
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.tascape.reactor.ios.tools;
 
+import com.tascape.reactor.ios.driver.ScreenStream;
 import com.tascape.reactor.ios.driver.UiAutomationDevice;
 import com.tascape.reactor.ios.model.UIAElement;
 import com.tascape.reactor.ios.model.UIAException;
@@ -22,7 +23,6 @@ import com.tascape.reactor.ios.model.UIAWindow;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
-import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
@@ -38,17 +38,16 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.Icon;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JDialog;
@@ -81,6 +80,10 @@ import org.slf4j.LoggerFactory;
 public class UiInteraction {
     private static final Logger LOG = LoggerFactory.getLogger(UiInteraction.class);
 
+    private static final double STREAM_FPS = 4;
+
+    private static final int STREAM_FRAMES = 3;
+
     protected UiAutomationDevice device;
 
     private final AtomicBoolean visible = new AtomicBoolean(true);
@@ -97,12 +100,23 @@ public class UiInteraction {
 
     private final JCheckBox jcbTap = new JCheckBox("Enable Tap", null, false);
 
+    private final JCheckBox jcbStream = new JCheckBox("Stream Screen", null, false);
+
     private final JButton jbLogUi = new JButton("Log Main Window");
 
     private final JTextArea jtaResponse = new JTextArea();
 
     private JLabel jlScreen;
 
+    private volatile BufferedImage screenImage;
+
+    private volatile ScreenStream screenStream;
+
+    /**
+     * Image of a stream frame no longer on screen, to be filled with the next frame.
+     */
+    private final AtomicReference<BufferedImage> spareImage = new AtomicReference<>();
+
     private final JTree jtView = new JTree();
 
     public UiInteraction(UiAutomationDevice device) {
@@ -162,6 +176,7 @@ public class UiInteraction {
             jpInfo.add(jb, BorderLayout.LINE_START);
             jb.addActionListener(event -> {
                 pass.set(true);
+                stopScreenStream();
                 jd.dispose();
                 visible.set(false);
             });
@@ -173,6 +188,7 @@ public class UiInteraction {
             jpInfo.add(jb, BorderLayout.LINE_END);
             jb.addActionListener(event -> {
                 pass.set(false);
+                stopScreenStream();
                 jd.dispose();
                 visible.set(false);
             });
@@ -198,7 +214,8 @@ public class UiInteraction {
         jpResponse.add(jtp, BorderLayout.CENTER);
 
         JPanel jpScreen = new JPanel(new BorderLayout());
-        jlScreen = createSreenshotLabel(null);
+        jlScreen = createSreenshotLabel(new ScreenIcon());
+        jlScreen.addMouseListener(new ScreenshotMouseListener());
         jpScreen.add(jlScreen, BorderLayout.CENTER);
         JScrollPane jspScreen = new JScrollPane(jpScreen);
         jpResponse.add(jspScreen, BorderLayout.LINE_START);
@@ -217,6 +234,15 @@ public class UiInteraction {
 
         jpLog.add(jcbTap);
         jpLog.add(Box.createHorizontalStrut(8));
+        jpLog.add(jcbStream);
+        jpLog.add(Box.createHorizontalStrut(8));
+        jcbStream.addActionListener(event -> {
+            if (jcbStream.isSelected()) {
+                startScreenStream();
+            } else {
+                stopScreenStream();
+            }
+        });
 
         jpResponse.add(jpLog, BorderLayout.PAGE_END);
         {
@@ -360,28 +386,54 @@ public class UiInteraction {
         }
     }
 
-    private JLabel createSreenshotLabel(Icon icon) {
-        JLabel jl = new JLabel();
-        jl.setVerticalAlignment(SwingConstants.TOP);
-        if (icon == null) {
-            jl.setIcon(new Icon() {
-                @Override
-                public void paintIcon(Component c, Graphics g, int x, int y) {
-                }
-
-                @Override
-                public int getIconWidth() {
-                    return device.getDisplaySize().width;
+    /**
+     * Starts streaming device screen into the screenshot label. Frames are double buffered: a frame is copied into
+     * the spare image off screen, which is swapped in on the EDT, and the image it replaces becomes the spare one.
+     * Frames are scaled when painted.
+     */
+    private void startScreenStream() {
+        ScreenStream stream = device.startScreenStream(STREAM_FPS, STREAM_FRAMES);
+        screenStream = stream;
+        Thread t = new Thread(tName + "s") {
+            @Override
+            public void run() {
+                long sequence = 0;
+                while (stream.isRunning()) {
+                    try (ScreenStream.Frame frame = stream.next(sequence, 1000)) {
+                        if (frame == null) {
+                            continue;
+                        }
+                        sequence = frame.getSequence();
+                        BufferedImage image = frame.toImage(spareImage.getAndSet(null));
+                        SwingUtilities.invokeLater(() -> {
+                            BufferedImage shown = screenImage;
+                            screenImage = image;
+                            spareImage.compareAndSet(null, shown);
+                            jlScreen.repaint();
+                        });
+                    } catch (InterruptedException ex) {
+                        LOG.warn("screen stream interrupted", ex);
+                        break;
+                    }
                 }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
 
-                @Override
-                public int getIconHeight() {
-                    return device.getDisplaySize().height;
-                }
-            });
-        } else {
-            jl.setIcon(icon);
+    private void stopScreenStream() {
+        ScreenStream stream = screenStream;
+        screenStream = null;
+        if (stream != null) {
+            stream.close();
         }
+    }
+
+    private JLabel createSreenshotLabel(Icon icon) {
+        JLabel jl = new JLabel();
+        jl.setVerticalAlignment(SwingConstants.TOP);
+        jl.setIcon(icon);
         Dimension dimension = new Dimension(device.getDisplaySize().width, device.getDisplaySize().height);
         jl.setMaximumSize(dimension);
         jl.setMinimumSize(dimension);
@@ -398,27 +450,11 @@ public class UiInteraction {
                 public void run() {
                     LOG.debug("\n\n");
                     try {
-                        File png = device.takeDeviceScreenshot();
-                        BufferedImage image = ImageIO.read(png);
-
-                        int w = device.getDisplaySize().width;
-                        int h = device.getDisplaySize().height;
-
-                        BufferedImage resizedImg = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-                        Graphics2D g2 = resizedImg.createGraphics();
-                        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                        g2.drawImage(image, 0, 0, w, h, null);
-                        g2.dispose();
-
-                        for (MouseListener ml : jlScreen.getMouseListeners()) {
-                            jlScreen.removeMouseListener(ml);
+                        if (screenStream == null) {
+                            File png = device.takeDeviceScreenshot();
+                            screenImage = ImageIO.read(png);
+                            jlScreen.repaint();
                         }
-                        Container c = jlScreen.getParent();
-                        c.removeAll();
-                        jlScreen = createSreenshotLabel(new ImageIcon(resizedImg));
-                        c.add(jlScreen);
-                        jlScreen.addMouseListener(new ScreenshotMouseListener());
 
                         UIAWindow window = device.mainWindow();
                         jtView.setModel(getModel(window));
@@ -457,6 +493,33 @@ public class UiInteraction {
         }
     }
 
+    /**
+     * Paints current screen image, scaled to display size in points.
+     */
+    private class ScreenIcon implements Icon {
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            BufferedImage image = screenImage;
+            if (image == null) {
+                return;
+            }
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(image, x, y, getIconWidth(), getIconHeight(), null);
+            g2.dispose();
+        }
+
+        @Override
+        public int getIconWidth() {
+            return device.getDisplaySize().width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return device.getDisplaySize().height;
+        }
+    }
+
     private class ScreenshotMouseListener extends MouseAdapter {
         @Override
         public void mouseClicked(MouseEvent e) {